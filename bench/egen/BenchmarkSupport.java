@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+/**
+ * Shared fixtures for benchmarks, generated documents and signer.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+final class BenchmarkSupport {
+    static final String alias = "bench";
+    static final String password = "123456";
+    
+    private BenchmarkSupport() {
+    }
+    
+    /**
+     * Create signer context from a freshly generated keystore
+     * @return SignerContext
+     */
+    static SignerContext createContext() throws IOException, GeneralSecurityException {
+        return createContext(KeyAlgorithm.RSA);
+    }
+    
+    /**
+     * Create signer context from a freshly generated keystore with key of the given algorithm
+     * @param keyAlgorithm
+     * @return SignerContext
+     */
+    static SignerContext createContext(KeyAlgorithm keyAlgorithm) throws IOException, GeneralSecurityException {
+        File store = File.createTempFile("bench", ".p12");
+        store.deleteOnExit();
+        KeyStore ks = FileEncryption.createKeystore(store.getPath(), alias, "Benchmark", password, keyAlgorithm);
+        return SignerContext.create(ks, alias, password.toCharArray());
+    }
+    
+    /**
+     * Generate PDF with pages of text
+     * @param pages
+     * @return PDF bytes
+     */
+    static byte[] createDocument(int pages) throws IOException {
+        try (PDDocument doc = new PDDocument(); ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+            for (int p = 0; p < pages; p++){
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.beginText();
+                    cs.setFont(PDType1Font.HELVETICA, 10);
+                    cs.setLeading(12);
+                    cs.newLineAtOffset(40, 750);
+                    for (int l = 0; l < 60; l++){
+                        cs.showText("Page " + p + " line " + l + " lorem ipsum dolor sit amet, consectetur adipiscing elit");
+                        cs.newLine();
+                    }
+                    cs.endText();
+                }
+            }
+            doc.save(bos);
+            return bos.toByteArray();
+        }
+    }
+}
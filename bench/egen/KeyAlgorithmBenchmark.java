@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signatures per second for each {@link KeyAlgorithm}: the bare private key
+ * operation, CMS generation from a precomputed digest and signing a whole
+ * document.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyAlgorithmBenchmark {
+    @Param({"RSA", "EC", "ED25519"})
+    KeyAlgorithm keyAlgorithm;
+    
+    SignerContext context;
+    Signature signature;
+    byte[] pdf;
+    byte[] hash;
+    
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException, GeneralSecurityException {
+        context = BenchmarkSupport.createContext(keyAlgorithm);
+        signature = Signature.getInstance(keyAlgorithm.getSignatureAlgorithm());
+        pdf = BenchmarkSupport.createDocument(1);
+        hash = context.digest(new ByteArrayInputStream(pdf));
+    }
+
+    /**
+     * Private key operation only, data sized like encoded signed attributes
+     */
+    @Benchmark
+    public byte[] keyOperation() throws GeneralSecurityException {
+        signature.initSign(context.getPrivateKey());
+        signature.update(hash);
+        return signature.sign();
+    }
+
+    /**
+     * CMS generation and private key operation from precomputed digest
+     */
+    @Benchmark
+    public byte[] signDigest() throws IOException {
+        return context.signDigest(hash);
+    }
+
+    /**
+     * One page document signed in memory
+     */
+    @Benchmark
+    public byte[] signDocument() throws IOException {
+        return new PDFSignature(context).signDetached(pdf);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.ExternalSigningSupport;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.SignatureOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of each stage of signing one document.
+ * 
+ * Stages run in the same order as {@link PDFSignature#signDetached(PDDocument, java.io.OutputStream)}:
+ * load, DocMDP lookup, addSignature, saveIncremental and CMS generation with the
+ * private key operation.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SigningBenchmark {
+    @Param({"1", "100", "1000"})
+    int pages;
+    
+    SignerContext context;
+    byte[] pdf;
+    byte[] hash;
+    byte[] placeholder;
+    PDDocument document;
+    
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException, GeneralSecurityException {
+        context = BenchmarkSupport.createContext();
+        pdf = BenchmarkSupport.createDocument(pages);
+        hash = context.digest(new ByteArrayInputStream(pdf));
+        placeholder = context.signDigest(hash);
+    }
+    
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws IOException {
+        document = PDDocument.load(pdf);
+    }
+    
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() throws IOException {
+        document.close();
+    }
+    
+    private PDSignature addSignature() throws IOException {
+        PDSignature signature = new PDSignature();
+        signature.setFilter(PDSignature.FILTER_ADOBE_PPKLITE);
+        signature.setSubFilter(PDSignature.SUBFILTER_ADBE_PKCS7_DETACHED);
+        signature.setSignDate(Calendar.getInstance());
+        SignatureOptions options = new SignatureOptions();
+        options.setPreferredSignatureSize(context.getSignatureSize());
+        document.addSignature(signature, options);
+        return signature;
+    }
+
+    @Benchmark
+    public void load(Blackhole bh) throws IOException {
+        try (PDDocument doc = PDDocument.load(pdf)) {
+            bh.consume(doc.getNumberOfPages());
+        }
+    }
+
+    @Benchmark
+    public int mdpPermission() {
+        return SigUtils.getMDPPermission(document);
+    }
+
+    @Benchmark
+    public PDSignature addSignatureStage() throws IOException {
+        return addSignature();
+    }
+
+    /**
+     * Incremental save including hashing of ByteRange, without private key operation
+     */
+    @Benchmark
+    public int saveIncremental() throws IOException {
+        addSignature();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(pdf.length + placeholder.length * 2 + 8192);
+        ExternalSigningSupport ext = document.saveIncrementalForExternalSigning(out);
+        IOUtils.toByteArray(ext.getContent());
+        ext.setSignature(placeholder);
+        return out.size();
+    }
+
+    @Benchmark
+    public byte[] digest() throws IOException {
+        return context.digest(new ByteArrayInputStream(pdf));
+    }
+
+    /**
+     * SignatureBase.sign, CMS generation streaming the content and RSA
+     */
+    @Benchmark
+    public byte[] sign() throws IOException {
+        return new SignatureBase(context).sign(new ByteArrayInputStream(pdf));
+    }
+
+    /**
+     * CMS generation and RSA from precomputed digest
+     */
+    @Benchmark
+    public byte[] signDigest() throws IOException {
+        return context.signDigest(hash);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end throughput in documents per second for document size, 
+ * worker threads and signing mode.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThroughputBenchmark {
+    static final int BATCH = 32;
+    
+    @Param({"1", "100"})
+    int pages;
+    
+    @Param({"1", "2", "4", "8"})
+    int threads;
+    
+    @Param({"false", "true"})
+    boolean external;
+    
+    SignerContext context;
+    byte[] pdf;
+    ExecutorService pool;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GeneralSecurityException {
+        context = BenchmarkSupport.createContext();
+        pdf = BenchmarkSupport.createDocument(pages);
+        pool = Executors.newFixedThreadPool(threads);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+    
+    private int signOne() throws IOException {
+        PDFSignature signing = new PDFSignature(context);
+        signing.setExternalSigning(external);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(pdf.length + context.getSignatureSize() * 2 + 8192);
+        signing.signDetached(new ByteArrayInputStream(pdf), out);
+        return out.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long signDocuments() throws InterruptedException, ExecutionException {
+        List<Future<Integer>> results = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++){
+            results.add(pool.submit(this::signOne));
+        }
+        long bytes = 0;
+        for (Future<Integer> f : results){
+            bytes += f.get();
+        }
+        return bytes;
+    }
+}
@@ -26,14 +26,42 @@ package digsig;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import egen.AgentClient;
+import egen.BatchSigner;
+import egen.DigestAlgorithm;
 import egen.FileEncryption;
+import egen.FolderWatcher;
+import egen.MemoryPolicy;
+import egen.PDFSignature;
+import egen.PipelineSigner;
+import egen.RevocationCache;
+import egen.SignatureVerifier;
+import egen.SignerContext;
+import egen.SigningAgent;
+import egen.SigningMetrics;
+import egen.SigningServer;
+import egen.TSAClient;
+import egen.ValidationInformation;
+import egen.VisibleSignature;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Console;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.util.List;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
 
 /**
  *
@@ -48,12 +76,21 @@ public class PDFSigner {
      * Application Name
      */
     public static final String appName = "PDF Signer";
+    /**
+     * Buffer size of stdin and stdout when signing a stream
+     */
+    public static final int STREAM_BUFFER_SIZE = 64 * 1024;
     
     /**
      * @param args the command line arguments
      * @throws java.io.IOException
      */
     public static void main(String[] args) throws IOException {
+        boolean stream = args.length >= 2 && "-".equals(args[1]);
+        if(stream){
+            // stdout carries the signed PDF, every message goes to stderr
+            System.setOut(System.err);
+        }
         System.out.println("Welcome to " + appName + " Version " + appVersion);
         System.out.println("Created by Eko Junaidi Salam <eko.junaidi.salam@gmail.com>");
         
@@ -75,52 +112,390 @@ public class PDFSigner {
             String reason = "";
             boolean keypass = false;
             boolean parfile = false;
+            int threads = 0;
+            boolean external = false;
+            boolean zeroCopy = false;
+            MemoryUsageSetting memory = null;
+            int port = -1;
+            int warmup = 0;
+            String token = System.getenv(SigningServer.TOKEN_ENV);
+            long maxRequest = SigningServer.DEFAULT_MAX_REQUEST_SIZE;
+            boolean watch = false;
+            File metrics = null;
+            int[] pipeline = null;
+            String agentSocket = null;
+            long idle = 0;
+            boolean useAgent = false;
+            boolean virtual = false;
+            File verify = null;
+            File report = null;
+            TSAClient tsa = null;
+            String digestName = null;
+            DigestAlgorithm digest = null;
+            ValidationInformation ltv = null;
+            String visibleLayout = null;
+            File image = new File(VisibleSignature.default_image);
+            VisibleSignature visible = null;
+            SignerContext agent = null;
             
             for(int i=0;i<args.length;i++){
-                if("-k".equals(args[i])){
-                    keypass = true;
-                    pass = new File(args[i+1]);
-                    if(pass.isFile()) passc = Files.readString(Paths.get(pass.getPath())).replaceAll("\\r\\n|\\r|\\n", "");
-                }
-                
-                if("-p".equals(args[i])){
-                    parfile = true;
-                    params = new File(args[i+1]);
-                    if(params.isFile()){
-                        List<String> jsonPar = Files.readAllLines(Paths.get(params.getPath()));
-                        StringBuilder json = new StringBuilder();
+                try {
+                    if("-k".equals(args[i])){
+                        keypass = true;
+                        pass = new File(args[i+1]);
+                        if(pass.isFile()) passc = Files.readString(Paths.get(pass.getPath())).replaceAll("\\r\\n|\\r|\\n", "");
+                    }
+                    
+                    if("-p".equals(args[i])){
+                        parfile = true;
+                        params = new File(args[i+1]);
+                        if(params.isFile()){
+                            List<String> jsonPar = Files.readAllLines(Paths.get(params.getPath()));
+                            StringBuilder json = new StringBuilder();
 
-                        jsonPar.forEach((s) -> {
-                            json.append(s);
-                        });
-                        JsonElement je = JsonParser.parseString(json.toString());
-                        JsonObject jo = je.getAsJsonObject();
-                        if(jo.size() == 2){
-                            alias = jo.get("alias").getAsString();
-                            reason = jo.get("reason").getAsString();
+                            jsonPar.forEach((s) -> {
+                                json.append(s);
+                            });
+                            JsonElement je = JsonParser.parseString(json.toString());
+                            JsonObject jo = je.getAsJsonObject();
+                            if(jo.size() == 2){
+                                alias = jo.get("alias").getAsString();
+                                reason = jo.get("reason").getAsString();
+                            }
+                        }
+                    }
+                    
+                    if("--threads".equals(args[i])){
+                        threads = Integer.parseInt(args[i+1]);
+                    }
+                    
+                    if("--zero-copy".equals(args[i])){
+                        zeroCopy = true;
+                    }
+                    
+                    if("--external".equals(args[i])){
+                        external = true;
+                    }
+                    
+                    if("--memory".equals(args[i])){
+                        memory = MemoryPolicy.parse(args[i+1]);
+                    }
+                    
+                    if("--server".equals(args[i])){
+                        port = Integer.parseInt(args[i+1]);
+                    }
+                    
+                    if("--token-file".equals(args[i])){
+                        token = Files.readString(Paths.get(args[i+1])).replaceAll("\\r\\n|\\r|\\n", "");
+                    }
+                    
+                    if("--max-request".equals(args[i])){
+                        maxRequest = Long.parseLong(args[i+1]) * 1024 * 1024;
+                    }
+                    
+                    if("--warmup".equals(args[i])){
+                        warmup = Integer.parseInt(args[i+1]);
+                    }
+                    
+                    if("--watch".equals(args[i])){
+                        watch = true;
+                    }
+                    
+                    if("--metrics".equals(args[i])){
+                        metrics = new File(args[i+1]);
+                    }
+                    
+                    if("--agent".equals(args[i])){
+                        agentSocket = args[i+1];
+                    }
+                    
+                    if("--idle".equals(args[i])){
+                        idle = Long.parseLong(args[i+1]);
+                    }
+                    
+                    if("--verify".equals(args[i])){
+                        verify = new File(args[i+1]);
+                    }
+                    
+                    if("--report".equals(args[i])){
+                        report = new File(args[i+1]);
+                    }
+                    
+                    if("--tsa".equals(args[i])){
+                        tsa = new TSAClient(URI.create(args[i+1]), 0);
+                    }
+                    
+                    if("--digest".equals(args[i])){
+                        digestName = args[i+1];
+                    }
+                    
+                    if("--ltv".equals(args[i])){
+                        ltv = new ValidationInformation(new RevocationCache(new File(args[i+1])));
+                    }
+                    
+                    if("--visible".equals(args[i])){
+                        visibleLayout = args[i+1];
+                    }
+                    
+                    if("--image".equals(args[i])){
+                        image = new File(args[i+1]);
+                    }
+                    
+                    if("--virtual".equals(args[i])){
+                        virtual = true;
+                    }
+                    
+                    if("--use-agent".equals(args[i])){
+                        useAgent = true;
+                    }
+                    
+                    if("--pipeline".equals(args[i])){
+                        String[] stages = args[i+1].split(",");
+                        if(stages.length != 4){
+                            System.out.println("--pipeline expects <read>,<parse>,<sign>,<write> threads");
+                            System.exit(1);
                         }
+                        pipeline = new int[4];
+                        for(int n=0;n<4;n++) pipeline[n] = Integer.parseInt(stages[n].trim());
                     }
+                } catch (IllegalArgumentException ex) {
+                    // NumberFormatException is an IllegalArgumentException
+                    System.out.println("Invalid value for "+args[i]+" : "+ex.getMessage());
+                    usage();
+                    System.exit(1);
+                } catch (ArrayIndexOutOfBoundsException ex) {
+                    System.out.println("Missing value for "+args[i]);
+                    usage();
+                    System.exit(1);
                 }
             }
             
-            if(!keypass){
-                passc = new String(c.readPassword("Enter keystore passphrase : "));
+            if(verify != null){
+                // no keystore needed
+                verify(verify, report, threads);
+            }
+            
+            if(visibleLayout != null){
+                try {
+                    visible = VisibleSignature.parse(visibleLayout, image.isFile() ? image : null);
+                } catch (IllegalArgumentException ex) {
+                    System.out.println("Invalid value for --visible : "+ex.getMessage());
+                    usage();
+                    System.exit(1);
+                }
             }
             
-            if(!parfile){
-                alias = c.readLine("Enter alias : ");
-                reason = c.readLine("Enter reason : ");
+            if(digestName != null){
+                try {
+                    if("auto".equals(digestName)){
+                        digest = DigestAlgorithm.fastest(DigestAlgorithm.SHA256, DigestAlgorithm.SHA384, DigestAlgorithm.SHA512);
+                        System.out.println("Digest algorithm "+digest.getName()+" is fastest on this host");
+                    }else{
+                        digest = DigestAlgorithm.parse(digestName);
+                    }
+                } catch (IllegalArgumentException ex) {
+                    System.out.println("Invalid value for --digest : "+ex.getMessage());
+                    usage();
+                    System.exit(1);
+                }
+            }
+            
+            if(stream && (!parfile || (!keypass && !useAgent))){
+                // stdin is the PDF, nothing left to prompt with
+                System.out.println("Reading PDF from stdin requires -p and -k or --use-agent");
+                System.exit(1);
+            }
+            
+            if(zeroCopy && (stream || port >= 0 || watch || pipeline != null || (agentSocket != null && !useAgent))){
+                // only signing a file or a directory writes to a file channel
+                System.out.println("--zero-copy only applies to signing a file or a directory");
+                usage();
+                System.exit(1);
+            }
+
+            if(ltv != null && (port >= 0 || watch || (agentSocket != null && !useAgent))){
+                // LTV data is added to the written files once they are signed
+                System.out.println("--ltv only applies to signing a file, a directory or stdin");
+                usage();
+                System.exit(1);
+            }
+            if(ltv != null){
+                ltv.setMemoryUsageSetting(memory);
+            }
+
+            if(virtual && !BatchSigner.isVirtualThreadsSupported()){
+                // the platform thread fallback is not what was asked for
+                System.out.println("--virtual needs a JDK 21 runtime, running on Java "+Runtime.version().feature());
+                usage();
+                System.exit(1);
+            }
+
+            if(pipeline != null && (external || virtual)){
+                // the pipeline always signs the digest with its own stage threads
+                System.out.println("--external and --virtual do not apply to --pipeline");
+                usage();
+                System.exit(1);
             }
             
-            if(!"".equals(passc) && ksf.isFile() && pdf.isFile()){
+            if(useAgent){
+                // first argument is the agent socket, no keystore is loaded
+                try {
+                    agent = new AgentClient(ksf.toPath()).createContext();
+                    agent = agent.withTSAClient(tsa);
+                    if(digest != null) agent = agent.withDigestAlgorithm(digest);
+                } catch (IOException ex) {
+                    System.out.println("Failed to use signing agent : "+ex);
+                    System.exit(1);
+                }
+                if(!parfile){
+                    reason = c.readLine("Enter reason : ");
+                }
+            }else{
+                if(!keypass){
+                    passc = new String(c.readPassword("Enter keystore passphrase : "));
+                }
+
+                if(!parfile){
+                    alias = c.readLine("Enter alias : ");
+                    reason = c.readLine("Enter reason : ");
+                }
+            }
+            
+            if(metrics != null){
+                // written on every exit, also after failures
+                final File metricsFile = metrics;
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        SigningMetrics.getDefault().write(metricsFile);
+                    } catch (IOException ex) {
+                        System.out.println("Failed to write metrics : "+ex);
+                    }
+                }));
+            }
+            
+            if(agentSocket != null && !useAgent && ksf.isFile()){
+                try {
+                    SigningAgent sa = new SigningAgent(Paths.get(agentSocket), signerContext(null, ksf, alias, passc, null, digest), threads);
+                    sa.setIdleTimeout(idle * 1000);
+                    sa.start();
+                    Runtime.getRuntime().addShutdownHook(new Thread(sa::close));
+                    System.out.println("Signing agent listening on "+sa.getSocket());
+                    sa.await();
+                } catch (GeneralSecurityException | IOException ex) {
+                    System.out.println("Failed to start signing agent : "+ex);
+                    System.exit(1);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    System.exit(1);
+                }
+            }else if(port >= 0 && (useAgent || ksf.isFile())){
+                if(token == null || token.isEmpty()){
+                    System.out.println("Signing server requires --token-file <file> or "+SigningServer.TOKEN_ENV);
+                    System.exit(1);
+                }
+                try {
+                    SigningServer server = new SigningServer(signerContext(agent, ksf, alias, passc, tsa, digest), reason, threads);
+                    server.setExternalSigning(external);
+                    server.setMemoryUsageSetting(memory);
+                    server.setVisibleSignature(visible);
+                    server.setToken(token);
+                    server.setMaxRequestSize(maxRequest);
+                    if(warmup > 0){
+                        System.out.println("Warming up...");
+                        server.warmUp(warmup);
+                    }
+                    server.start(port);
+                    Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(5)));
+                    System.out.println("Signing server listening on http://127.0.0.1:"+server.getPort()+"/sign");
+                } catch (GeneralSecurityException | IOException ex) {
+                    System.out.println("Failed to start signing server : "+ex);
+                    System.exit(1);
+                }
+                // keep running until interrupted
+                return;
+            }else if(stream && (useAgent || ksf.isFile())){
+                try {
+                    PDFSignature signing = new PDFSignature(signerContext(agent, ksf, alias, passc, tsa, digest));
+                    signing.setReason(reason);
+                    signing.setExternalSigning(external);
+                    signing.setMemoryUsageSetting(memory);
+                    signing.setVisibleSignature(visible);
+                    signStream(signing, ltv);
+                } catch (GeneralSecurityException | IOException ex) {
+                    System.out.println("Failed to sign pdf : "+ex);
+                    System.exit(1);
+                }
+            }else if((useAgent || (!"".equals(passc) && ksf.isFile())) && pdf.isFile()){
                 fe = new FileEncryption();
-                ks = fe.loadKeystore(ksf, passc);
-                fe.signPDF(pdf, ks, alias, passc, reason);
+                fe.setExternalSigning(external);
+                fe.setMemoryUsageSetting(memory);
+                fe.setVisibleSignature(visible);
+                fe.setZeroCopy(zeroCopy);
+                try {
+                    fe.signPDF(pdf, signerContext(agent, ksf, alias, passc, tsa, digest), reason);
+                } catch (GeneralSecurityException | IOException ex) {
+                    System.out.println("Failed to sign pdf : "+ex);
+                    System.exit(1);
+                }
+                addValidationInformation(ltv, FileEncryption.getSignedFile(pdf));
+            }else if(watch && (useAgent || ksf.isFile()) && pdf.isDirectory()){
+                try {
+                    FolderWatcher fw = new FolderWatcher(pdf, signerContext(agent, ksf, alias, passc, tsa, digest), reason, threads);
+                    fw.setExternalSigning(external);
+                    fw.setMemoryUsageSetting(memory);
+                    fw.setVisibleSignature(visible);
+                    Runtime.getRuntime().addShutdownHook(new Thread(fw::close));
+                    System.out.println("Watching "+pdf.getPath()+" for new PDF files...");
+                    fw.run();
+                } catch (GeneralSecurityException | IOException ex) {
+                    System.out.println("Failed to watch folder : "+ex);
+                    System.exit(1);
+                }
+            }else if(pipeline != null && (useAgent || ksf.isFile()) && pdf.isDirectory()){
+                try {
+                    PipelineSigner ps = new PipelineSigner(signerContext(agent, ksf, alias, passc, tsa, digest), reason);
+                    ps.setThreads(pipeline[0], pipeline[1], pipeline[2], pipeline[3]);
+                    ps.setMemoryUsageSetting(memory);
+                    ps.setVisibleSignature(visible);
+                    ps.setValidationInformation(ltv);
+                    printResults(ps.signDirectory(pdf));
+                } catch (GeneralSecurityException | IOException ex) {
+                    System.out.println("Failed to sign pdf : "+ex);
+                    System.exit(1);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    System.out.println("Batch signing interrupted...");
+                    System.exit(1);
+                }
             }else if(pdf.isDirectory()){
-                fe = new FileEncryption();
-                ks = fe.loadKeystore(ksf, passc);
-                for(File f:pdf.listFiles()){
-                    fe.signPDF(f, ks, alias, passc, reason);
+                BatchSigner bs;
+                if(useAgent){
+                    bs = new BatchSigner(agent, reason, threads);
+                }else if(tsa != null || digest != null){
+                    try {
+                        bs = new BatchSigner(signerContext(null, ksf, alias, passc, tsa, digest), reason, threads);
+                    } catch (GeneralSecurityException | IOException ex) {
+                        System.out.println("Failed to sign pdf : "+ex);
+                        System.exit(1);
+                        return;
+                    }
+                }else{
+                    fe = new FileEncryption();
+                    ks = fe.loadKeystore(ksf, passc);
+                    bs = new BatchSigner(ks, alias, passc, reason, threads);
+                }
+                bs.setExternalSigning(external);
+                bs.setMemoryUsageSetting(memory);
+                bs.setVisibleSignature(visible);
+                bs.setZeroCopy(zeroCopy);
+                bs.setVirtualThreads(virtual);
+                bs.setValidationInformation(ltv);
+                try {
+                    printResults(bs.signDirectory(pdf));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    System.out.println("Batch signing interrupted...");
+                    System.exit(1);
                 }
             }else{
                 System.out.println("Failed to sign pdf...");
@@ -130,13 +505,156 @@ public class PDFSigner {
         }
     }
     
+    /**
+     * Verify file or every PDF of directory, write JSON report and exit with 1 
+     * when any file is not valid
+     */
+    private static void verify(File path, File report, int threads) throws IOException {
+        SignatureVerifier sv = new SignatureVerifier(threads);
+        List<SignatureVerifier.Report> reports;
+        try {
+            reports = path.isDirectory() ? sv.verifyDirectory(path) : List.of(sv.verify(path));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            System.out.println("Verification interrupted...");
+            System.exit(1);
+            return;
+        }
+        
+        String json = SignatureVerifier.toJson(reports);
+        if(report != null){
+            Files.writeString(report.toPath(), json);
+        }else{
+            System.out.println(json);
+        }
+        
+        int invalid = 0;
+        for(SignatureVerifier.Report r:reports){
+            if(!r.isValid()) invalid++;
+        }
+        System.out.println(reports.size()+" PDF File(s) verified, "+invalid+" not valid");
+        System.exit(invalid > 0 ? 1 : 0);
+    }
+    
+    /**
+     * Use signer of the agent, otherwise load keystore and unlock the key
+     */
+    private static SignerContext signerContext(SignerContext agent, File ksf, String alias, String passc, 
+            TSAClient tsa, DigestAlgorithm digest) throws GeneralSecurityException, IOException {
+        if(agent != null) return agent;
+        KeyStore ks = new FileEncryption().loadKeystore(ksf, passc);
+        SignerContext context = SignerContext.create(ks, alias, passc.toCharArray()).withTSAClient(tsa);
+        return digest != null ? context.withDigestAlgorithm(digest) : context;
+    }
+    
+    /**
+     * Sign PDF read from stdin and write signed PDF to stdout, the document 
+     * itself is buffered as set by --memory because PDF is not read sequentially
+     */
+    private static void signStream(PDFSignature signing, ValidationInformation ltv) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(FileDescriptor.in), STREAM_BUFFER_SIZE);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), STREAM_BUFFER_SIZE)) {
+            if(ltv == null){
+                signing.signDetached(in, out);
+                return;
+            }
+            ByteArrayOutputStream signed = new ByteArrayOutputStream();
+            signing.signDetached(in, signed);
+            byte[] pdf = signed.toByteArray();
+            try (PDDocument doc = PDDocument.load(pdf)) {
+                ltv.addValidationInformation(doc, pdf, out);
+            }
+        }
+    }
+    
+    /**
+     * Add LTV data to signed file when --ltv is given, exit with 1 on failure
+     */
+    private static void addValidationInformation(ValidationInformation ltv, File signed) {
+        if(ltv == null || !signed.isFile()) return;
+        try {
+            ltv.addValidationInformation(signed);
+        } catch (IOException ex) {
+            System.out.println("Failed to add validation information : "+ex);
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Print batch results in file order, exit with 1 when any file failed
+     */
+    private static void printResults(List<BatchSigner.Result> results) {
+        int failed = 0;
+        for(BatchSigner.Result r:results){
+            if(r.isSuccess()){
+                System.out.println("PDF File "+ r.getInput().getName() +" Signed");
+            }else{
+                failed++;
+                System.out.println("PDF File "+ r.getInput().getName() +" Failed : "+r.getError());
+            }
+        }
+        if(failed > 0){
+            System.out.println(failed+" PDF File(s) failed to sign...");
+            System.exit(1);
+        }
+    }
+    
     private static void usage()    {
         System.err.println(
             "\nusage: java -jar pdf_signer.jar " +
             "<pkcs12_keystore> <pdf_to_sign>\n" +
+            "       java -jar pdf_signer.jar " +
+            "<pkcs12_keystore> --server <port>\n" +
+            "       java -jar pdf_signer.jar " +
+            "<pkcs12_keystore> --agent <socket> [--idle <seconds>]\n" +
+            "       java -jar pdf_signer.jar " +
+            "<socket> <pdf_to_sign> --use-agent\n" +
+            "       java -jar pdf_signer.jar " +
+            "<pkcs12_keystore> - -k <file> -p <file> < in.pdf > out.pdf\n" +
+            "       java -jar pdf_signer.jar " +
+            "--verify <pdf_or_directory> [--report <file>]\n" +
             "options:\n" +
             "  -k <file> file contains your keystore password.\n" +
-            "  -p <file> json file contains your alias and reason."
+            "  -p <file> json file contains your alias and reason.\n" +
+            "  --threads <n> number of worker threads when signing a directory,\n" +
+            "                default is number of processors.\n" +
+            "  --tsa <url>   add RFC 3161 signature timestamp from TSA url.\n" +
+            "  --digest <alg> document digest: SHA-256 (default), SHA-384, SHA-512,\n" +
+            "                SHA3-256, SHA3-384, SHA3-512 or auto to pick the fastest\n" +
+            "                SHA-2 digest on this host at startup.\n" +
+            "  --ltv <dir>   embed certificates and OCSP/CRL responses for long term\n" +
+            "                validation, responses are cached in dir until next update.\n" +
+            "  --virtual     sign a directory with one virtual thread per document,\n" +
+            "                --threads then limits the private key operations only.\n" +
+            "                Needs a JDK 21 runtime, rejected on older runtimes.\n" +
+            "  --visible <page>,<x>,<y>,<w>,<h> show signer name and date as stamp at\n" +
+            "                x,y (points from bottom left) of page, -1 is the last page.\n" +
+            "  --image <file> image of the stamp, default res/seahorse-key.png.\n" +
+            "  --external    sign only the document digest calculated in a single pass.\n" +
+            "  --zero-copy   copy the original bytes of the signed file with transferTo\n" +
+            "                and write only the incremental update, only when signing\n" +
+            "                a file or a directory.\n" +
+            "  --memory <policy> memory used per document while signing:\n" +
+            "                main (default), mixed:<MB> or temp[:<dir>].\n" +
+            "  --server <port> keep keystore loaded and sign PDF sent by POST to\n" +
+            "                http://127.0.0.1:<port>/sign, 0 picks a free port.\n" +
+            "  --token-file <file> bearer token required by the server, default is\n" +
+            "                environment variable EGEN_SIGN_TOKEN.\n" +
+            "  --max-request <MB> reject larger requests to the server, default 64.\n" +
+            "  --warmup <n>  sign a blank document n times before serving.\n" +
+            "  --watch       keep watching <pdf_to_sign> directory and sign new files,\n" +
+            "                signed inputs are moved to processed/.\n" +
+            "  --agent <socket> unlock the key once and sign for other processes through\n" +
+            "                Unix domain socket, only accessible by the same user.\n" +
+            "  --idle <seconds> drop the key and stop the agent when not used, default never.\n" +
+            "  --use-agent   sign with key of the agent listening on <socket>.\n" +
+            "  --pipeline <r>,<p>,<s>,<w> sign a directory in overlapping stages with\n" +
+            "                given read, parse, sign and write threads.\n" +
+            "  --verify <path> verify every signature of PDF file or directory in parallel,\n" +
+            "                report is printed as JSON, exit code 1 when any is not valid.\n" +
+            "  --report <file> write JSON verification report to file.\n" +
+            "  --metrics <file> write signing phase metrics on exit, JSON when file\n" +
+            "                ends with .json, otherwise Prometheus text format."
         );
     }
 }
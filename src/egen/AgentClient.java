@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+
+/**
+ * Client of {@link SigningAgent}.
+ * 
+ * Use {@link #createContext()} to sign with a key held by the agent, 
+ * every private key operation opens a short connection to the agent.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class AgentClient implements KeySigner {
+    private final Path socket;
+
+    /**
+     * Create agent client
+     * @param socket path of agent Unix domain socket
+     */
+    public AgentClient(Path socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Create signer context using certificate chain and key of the agent
+     * @return SignerContext
+     * @throws IOException when agent is not running
+     */
+    public SignerContext createContext() throws IOException {
+        return new SignerContext(this, getCertificateChain());
+    }
+
+    /**
+     * Get certificate chain of the agent key
+     * @return 
+     * @throws IOException 
+     */
+    public Certificate[] getCertificateChain() throws IOException {
+        byte[] encoded = call(SigningAgent.OP_CHAIN);
+        try {
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            return cf.generateCertPath(new ByteArrayInputStream(encoded), "PkiPath")
+                    .getCertificates().toArray(new Certificate[0]);
+        } catch (CertificateException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public byte[] sign(byte[] data, String signatureAlgorithm) throws IOException {
+        return call(SigningAgent.OP_SIGN_WITH, signatureAlgorithm.getBytes(FileEncryption.Charset), data);
+    }
+
+    private byte[] call(byte op, byte[]... data) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+                DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+                DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel))) {
+            out.writeByte(op);
+            for (byte[] d : data){
+                out.writeInt(d.length);
+                out.write(d);
+            }
+            out.flush();
+            
+            byte status = in.readByte();
+            int len = in.readInt();
+            if (len < 0 || len > SigningAgent.MAX_DATA){
+                throw new IOException("Invalid agent response length "+len);
+            }
+            byte[] payload = new byte[len];
+            in.readFully(payload);
+            if (status != SigningAgent.STATUS_OK){
+                throw new IOException("Signing agent : "+new String(payload, FileEncryption.Charset));
+            }
+            return payload;
+        }
+    }
+}
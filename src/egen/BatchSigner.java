@@ -0,0 +1,345 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+
+/**
+ * Sign many PDF files in parallel using one loaded KeyStore.
+ * 
+ * The key is unlocked once into a {@link SignerContext} shared by a
+ * bounded pool of worker threads. Results are reported in the same order
+ * as the input files and a failure on one file does not stop the rest
+ * of the batch.
+ * 
+ * For slow storage like NFS, {@link #setVirtualThreads(boolean)} handles
+ * every document on its own virtual thread while the private key operation
+ * runs on {@code threads} platform threads only.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class BatchSigner {
+    private final KeyStore keystore;
+    private final String alias;
+    private final String pin;
+    private final String reason;
+    private final int threads;
+    private final SignerContext context;
+    private boolean externalSigning = false;
+    private MemoryUsageSetting memoryUsageSetting = null;
+    private VisibleSignature visibleSignature = null;
+    private boolean zeroCopy = false;
+    private ValidationInformation validationInformation = null;
+    private boolean virtualThreads = false;
+    private int maxInFlight = 1024;
+
+    /**
+     * Create batch signer
+     * @param keystore loaded keystore shared by all workers
+     * @param alias
+     * @param pin
+     * @param reason
+     * @param threads number of worker threads, {@code <= 0} means number of processors
+     */
+    public BatchSigner(KeyStore keystore, String alias, String pin, String reason, int threads) {
+        this.keystore = keystore;
+        this.alias = alias;
+        this.pin = pin;
+        this.reason = reason;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.context = null;
+    }
+
+    /**
+     * Create batch signer with prepared signer
+     * @param context prepared signer shared by all workers
+     * @param reason
+     * @param threads number of worker threads, {@code <= 0} means number of processors
+     */
+    public BatchSigner(SignerContext context, String reason, int threads) {
+        this.keystore = null;
+        this.alias = null;
+        this.pin = null;
+        this.reason = reason;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.context = context;
+    }
+
+    /**
+     * Get number of worker threads
+     * @return 
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Use external signing for every file, see {@link PDFSignature#setExternalSigning(boolean)}
+     * @param externalSigning 
+     */
+    public void setExternalSigning(boolean externalSigning) {
+        this.externalSigning = externalSigning;
+    }
+
+    /**
+     * Set memory usage for loading PDF files, see {@link MemoryPolicy#parse(String)}
+     * @param memoryUsageSetting 
+     */
+    public void setMemoryUsageSetting(MemoryUsageSetting memoryUsageSetting) {
+        this.memoryUsageSetting = memoryUsageSetting;
+    }
+
+    /**
+     * Show signature of every file as stamp, see {@link VisibleSignature}
+     * @param visibleSignature 
+     */
+    public void setVisibleSignature(VisibleSignature visibleSignature) {
+        this.visibleSignature = visibleSignature;
+    }
+
+    /**
+     * Copy original bytes of every file with transferTo, see {@link PDFSignature#setZeroCopy(boolean)}
+     * @param zeroCopy 
+     */
+    public void setZeroCopy(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+    }
+
+    /**
+     * Add LTV data to every signed file on the worker which signed it
+     * @param validationInformation null adds nothing
+     */
+    public void setValidationInformation(ValidationInformation validationInformation) {
+        this.validationInformation = validationInformation;
+    }
+
+
+    /**
+     * Handle each document on a virtual thread, {@code threads} then only
+     * bounds the private key operations. Needs JDK 21, older JDK use a 
+     * platform thread pool of {@code threads * 4} for documents.
+     * @param virtualThreads 
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Check whether the running JDK has virtual threads for 
+     * {@link #setVirtualThreads(boolean)}
+     * @return false when documents fall back to platform threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return VirtualThreads.isSupported();
+    }
+
+    /**
+     * Set maximum number of documents signed at the same time with virtual threads
+     * @param maxInFlight 
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+    
+    /**
+     * Sign every PDF inside directory, sorted by file name
+     * @param dir
+     * @return List of Result in file name order
+     * @throws InterruptedException 
+     */
+    public List<Result> signDirectory(File dir) throws InterruptedException {
+        File[] files = dir.listFiles(FileEncryption::isSignable);
+        if (files == null){
+            return Collections.emptyList();
+        }
+        Arrays.sort(files);
+        return signFiles(Arrays.asList(files));
+    }
+
+    /**
+     * Sign list of PDF files
+     * @param files
+     * @return List of Result in the same order as files
+     * @throws InterruptedException 
+     */
+    public List<Result> signFiles(List<File> files) throws InterruptedException {
+        Result[] results = new Result[files.size()];
+        SignerContext context = this.context;
+        try {
+            if (context == null){
+                context = SignerContext.create(keystore, alias, pin.toCharArray());
+            }
+        } catch (Exception ex) {
+            // nothing can be signed without the key
+            List<Result> list = new ArrayList<>(results.length);
+            for (File f : files){
+                list.add(new Result(f, FileEncryption.getSignedFile(f), ex));
+            }
+            return list;
+        }
+        
+        final SignerContext signer = context;
+        if (virtualThreads){
+            signPerTask(signer, files, results);
+            List<Result> list = new ArrayList<>(results.length);
+            Collections.addAll(list, results);
+            return list;
+        }
+        
+        // bounded queue, when full the submitting thread signs the file itself
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            for (int i = 0; i < results.length; i++){
+                final int idx = i;
+                final File f = files.get(i);
+                pool.execute(() -> results[idx] = sign(signer, f, null));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        
+        List<Result> list = new ArrayList<>(results.length);
+        Collections.addAll(list, results);
+        return list;
+    }
+
+    /**
+     * One task per document, only the private key operation is bounded 
+     * by the worker threads
+     */
+    private void signPerTask(SignerContext signer, List<File> files, Result[] results) throws InterruptedException {
+        ExecutorService documents = VirtualThreads.newPerTaskExecutor();
+        if (documents == null){
+            documents = Executors.newFixedThreadPool(Math.min(maxInFlight, threads * 4));
+        }
+        ExecutorService keyOperations = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        try {
+            for (int i = 0; i < results.length; i++){
+                final int idx = i;
+                final File f = files.get(i);
+                inFlight.acquire();
+                documents.execute(() -> {
+                    try {
+                        results[idx] = sign(signer, f, keyOperations);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            documents.shutdown();
+            documents.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            keyOperations.shutdown();
+        }
+    }
+
+    private Result sign(SignerContext context, File pdfFile, Executor keyOperations) {
+        File outFile = FileEncryption.getSignedFile(pdfFile);
+        try {
+            PDFSignature signing = new PDFSignature(context);
+            signing.setReason(reason);
+            signing.setExternalSigning(externalSigning);
+            signing.setMemoryUsageSetting(memoryUsageSetting);
+            signing.setVisibleSignature(visibleSignature);
+            signing.setZeroCopy(zeroCopy);
+            signing.setSignExecutor(keyOperations);
+            signing.signFile(pdfFile, outFile);
+            if (validationInformation != null){
+                validationInformation.addValidationInformation(outFile);
+            }
+            return new Result(pdfFile, outFile, null);
+        } catch (Exception ex) {
+            try {
+                Files.deleteIfExists(outFile.toPath());
+            } catch (Exception ignore) {
+                // keep original failure
+            }
+            return new Result(pdfFile, outFile, ex);
+        }
+    }
+
+    /**
+     * Result of signing one file
+     */
+    public static class Result {
+        private final File input;
+        private final File output;
+        private final Exception error;
+
+        Result(File input, File output, Exception error) {
+            this.input = input;
+            this.output = output;
+            this.error = error;
+        }
+
+        /**
+         * Get input PDF file
+         * @return 
+         */
+        public File getInput() {
+            return input;
+        }
+
+        /**
+         * Get signed output file
+         * @return 
+         */
+        public File getOutput() {
+            return output;
+        }
+
+        /**
+         * Get failure, null when signed
+         * @return 
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        /**
+         * Check is signed successfully
+         * @return 
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+}
@@ -25,130 +25,143 @@ package egen;
 
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x500.style.BCStyle;
 import org.bouncycastle.asn1.x500.style.IETFUtils;
+import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
 
 /**
+ * Immutable subject details of a certificate. Instances are cached by SHA-256 
+ * fingerprint, so the subject DN is parsed once per certificate and shared by
+ * every thread.
  *
  * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
  */
-public class CertificateHolder {
-    private static CertificateHolder init = null;
+public final class CertificateHolder {
+    private static final ConcurrentHashMap<String, CertificateHolder> cache = new ConcurrentHashMap<>();
     
-    private String Country;
-    private String State;
-    private String Location;
-    private String Organization;
-    private String Unit;
-    private String Name;
-    
-    /**
-     * Instantiate singleton for Certificate Holder
-     * @return CertificateHolder
-     */
-    public static CertificateHolder getInstance(){
-        if(init == null)
-            init =  new CertificateHolder();
-        return init;
-    }
+    private final String fingerprint;
+    private final X509CertificateHolder holder;
+    private final String Country;
+    private final String State;
+    private final String Location;
+    private final String Organization;
+    private final String Unit;
+    private final String Name;
 
+    private CertificateHolder(String fingerprint, X509CertificateHolder holder) {
+        this.fingerprint = fingerprint;
+        this.holder = holder;
+        X500Name dn = holder.getSubject();
+        this.Name = rdnValue(dn, BCStyle.CN);
+        this.Unit = rdnValue(dn, BCStyle.OU);
+        this.Organization = rdnValue(dn, BCStyle.O);
+        this.Location = rdnValue(dn, BCStyle.L);
+        this.State = rdnValue(dn, BCStyle.ST);
+        this.Country = rdnValue(dn, BCStyle.C);
+    }
+    
     /**
-     * Set Certificate X509
+     * Get Certificate Holder of X509 Certificate
      * @param cert 
+     * @return cached CertificateHolder
+     * @throws IllegalArgumentException when certificate can not be encoded
      */
-    public void setCert(X509Certificate cert) {
+    public static CertificateHolder of(X509Certificate cert){
+        byte[] encoded;
         try {
-            X500Name dn = new JcaX509CertificateHolder(cert).getSubject();
-            RDN cn = dn.getRDNs(BCStyle.CN)[0];
-            RDN unit = dn.getRDNs(BCStyle.OU)[0];
-            RDN org = dn.getRDNs(BCStyle.O)[0];
-            RDN loc = dn.getRDNs(BCStyle.L)[0];
-            RDN state = dn.getRDNs(BCStyle.ST)[0];
-            RDN country = dn.getRDNs(BCStyle.C)[0];
-            
-            setName(IETFUtils.valueToString(cn.getFirst().getValue()));
-            setUnit(IETFUtils.valueToString(unit.getFirst().getValue()));
-            setOrganization(IETFUtils.valueToString(org.getFirst().getValue()));
-            setLocation(IETFUtils.valueToString(loc.getFirst().getValue()));
-            setState(IETFUtils.valueToString(state.getFirst().getValue()));
-            setCountry(IETFUtils.valueToString(country.getFirst().getValue()));
+            encoded = cert.getEncoded();
         } catch (CertificateEncodingException ex) {
-            System.out.println(getClass().getName()+" CertificateHolder : "+ex);
+            throw new IllegalArgumentException(ex);
+        }
+        String fingerprint = DigestUtils.sha256Hex(encoded);
+        CertificateHolder ch = cache.get(fingerprint);
+        if(ch == null){
+            try {
+                ch = new CertificateHolder(fingerprint, new JcaX509CertificateHolder(cert));
+            } catch (CertificateEncodingException ex) {
+                throw new IllegalArgumentException(ex);
+            }
+            CertificateHolder existing = cache.putIfAbsent(fingerprint, ch);
+            if(existing != null) ch = existing;
         }
+        return ch;
     }
 
     /**
-     * Get Country ID
+     * Get SHA-256 fingerprint of certificate in lowercase hex
      * @return 
      */
-    public String getCountry() {
-        return Country;
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Get parsed certificate
+     * @return 
+     */
+    public X509CertificateHolder getHolder() {
+        return holder;
     }
 
-    private void setCountry(String Country) {
-        this.Country = Country;
+    /**
+     * Get Country ID
+     * @return null when subject has no country
+     */
+    public String getCountry() {
+        return Country;
     }
 
     /**
      * Get State
-     * @return 
+     * @return null when subject has no state
      */
     public String getState() {
         return State;
     }
 
-    private void setState(String State) {
-        this.State = State;
-    }
-
     /**
      * Get Location
-     * @return 
+     * @return null when subject has no location
      */
     public String getLocation() {
         return Location;
     }
 
-    private void setLocation(String Location) {
-        this.Location = Location;
-    }
-
     /**
      * Get Organization Name
-     * @return 
+     * @return null when subject has no organization
      */
     public String getOrganization() {
         return Organization;
     }
 
-    private void setOrganization(String Organization) {
-        this.Organization = Organization;
-    }
-
     /**
      * Get Organization Unit
-     * @return 
+     * @return null when subject has no organization unit
      */
     public String getUnit() {
         return Unit;
     }
 
-    private void setUnit(String Unit) {
-        this.Unit = Unit;
-    }
-
     /**
      * Get Common Name
-     * @return 
+     * @return null when subject has no common name
      */
     public String getName() {
         return Name;
     }
 
-    private void setName(String Name) {
-        this.Name = Name;
+    private static String rdnValue(X500Name dn, ASN1ObjectIdentifier oid){
+        RDN[] rdns = dn.getRDNs(oid);
+        if (rdns.length == 0){
+            return null;
+        }
+        return IETFUtils.valueToString(rdns[0].getFirst().getValue());
     }
 }
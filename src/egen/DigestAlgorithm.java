@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Digest algorithm of the signed document, used for the CMS message digest,
+ * the signature algorithm and the DocMDP {@code /DigestMethod}.
+ * 
+ * Which digest is fastest depends on the host: SHA-256 is fastest with the
+ * SHA extensions of the CPU, without them SHA-512 hashes more bytes per 
+ * second on 64 bit CPUs. {@link #fastest(DigestAlgorithm...)} measures it.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public enum DigestAlgorithm {
+    SHA256("SHA-256", "SHA256"),
+    SHA384("SHA-384", "SHA384"),
+    SHA512("SHA-512", "SHA512"),
+    SHA3_256("SHA3-256", "SHA3-256"),
+    SHA3_384("SHA3-384", "SHA3-384"),
+    SHA3_512("SHA3-512", "SHA3-512");
+    
+    /**
+     * Define constant for bytes hashed by each algorithm in {@link #fastest(DigestAlgorithm...)}
+     */
+    public static final int BENCHMARK_SIZE = 4 * 1024 * 1024;
+    
+    private static final int BENCHMARK_BUFFER_SIZE = 64 * 1024;
+    private static final int BENCHMARK_ROUNDS = 3;
+    
+    private final String name;
+    private final String shortName;
+
+    private DigestAlgorithm(String name, String shortName) {
+        this.name = name;
+        this.shortName = shortName;
+    }
+    
+    /**
+     * Parse digest algorithm name, case insensitive and with or without dash
+     * @param name e.g. SHA-256, sha512 or SHA3-256
+     * @return DigestAlgorithm
+     * @throws IllegalArgumentException when name is unknown
+     */
+    public static DigestAlgorithm parse(String name) {
+        if (FileEncryption.isNullOrEmpty(name)){
+            throw new IllegalArgumentException("Empty digest algorithm");
+        }
+        String n = name.replace("-", "").replace("_", "");
+        for (DigestAlgorithm da : values()){
+            if (da.name().replace("_", "").equalsIgnoreCase(n)){
+                return da;
+            }
+        }
+        throw new IllegalArgumentException("Unknown digest algorithm " + name);
+    }
+    
+    /**
+     * Pick the algorithm hashing {@link #BENCHMARK_SIZE} bytes fastest on this
+     * host. Each candidate is warmed up first, then the best of a few rounds
+     * counts, so it takes a fraction of a second at startup.
+     * @param candidates acceptable algorithms, all when empty
+     * @return fastest DigestAlgorithm
+     */
+    public static DigestAlgorithm fastest(DigestAlgorithm... candidates) {
+        if (candidates.length == 0){
+            candidates = values();
+        }
+        byte[] data = new byte[BENCHMARK_BUFFER_SIZE];
+        new Random(0).nextBytes(data);
+        DigestAlgorithm fastest = candidates[0];
+        long best = Long.MAX_VALUE;
+        for (DigestAlgorithm da : candidates){
+            MessageDigest md = da.createMessageDigest();
+            // warm up, lets JIT compile the intrinsics
+            hash(md, data);
+            long time = Long.MAX_VALUE;
+            for (int r = 0; r < BENCHMARK_ROUNDS; r++){
+                long start = System.nanoTime();
+                hash(md, data);
+                time = Math.min(time, System.nanoTime() - start);
+            }
+            if (time < best){
+                best = time;
+                fastest = da;
+            }
+        }
+        return fastest;
+    }
+    
+    private static void hash(MessageDigest md, byte[] data) {
+        for (int n = 0; n < BENCHMARK_SIZE; n += data.length){
+            md.update(data);
+        }
+        md.digest();
+    }
+    
+    /**
+     * Create new MessageDigest
+     * @return MessageDigest
+     * @throws IllegalStateException when not supported by the JDK
+     */
+    public MessageDigest createMessageDigest() {
+        try {
+            return MessageDigest.getInstance(name);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Get JCA name of digest
+     * @return e.g. SHA-256
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get short name used in JCA signature algorithm names and as 
+     * {@code /DigestMethod} of DocMDP, SHA3 names are from ISO 32001
+     * @return e.g. SHA256 as in SHA256WithRSA
+     */
+    public String getShortName() {
+        return shortName;
+    }
+}
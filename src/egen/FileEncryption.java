@@ -33,8 +33,8 @@ import java.io.OutputStream;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.security.KeyStore;
 import java.security.KeyStore.PasswordProtection;
 import java.security.KeyStore.ProtectionParameter;
@@ -51,12 +51,9 @@ import java.util.Date;
 import org.apache.commons.codec.binary.Base64;
 import javax.swing.JOptionPane;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.bouncycastle.asn1.x500.RDN;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.bouncycastle.asn1.x500.X500Name;
-import org.bouncycastle.asn1.x500.style.BCStyle;
-import org.bouncycastle.asn1.x500.style.IETFUtils;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
-import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.OperatorCreationException;
@@ -83,6 +80,11 @@ public class FileEncryption {
      * Define constant for RSA Key Size in bits
      */
     public static final int RSA_Key_Size = 2048;
+    
+    private boolean externalSigning = false;
+    private MemoryUsageSetting memoryUsageSetting = null;
+    private VisibleSignature visibleSignature = null;
+    private boolean zeroCopy = false;
 
     /**
      * Creates and setup instances for cipher
@@ -91,6 +93,38 @@ public class FileEncryption {
         
     }
     
+    /**
+     * Use external signing when signing PDF, see {@link PDFSignature#setExternalSigning(boolean)}
+     * @param externalSigning 
+     */
+    public void setExternalSigning(boolean externalSigning) {
+        this.externalSigning = externalSigning;
+    }
+    
+    /**
+     * Set memory usage for loading PDF files, see {@link MemoryPolicy#parse(String)}
+     * @param memoryUsageSetting 
+     */
+    public void setMemoryUsageSetting(MemoryUsageSetting memoryUsageSetting) {
+        this.memoryUsageSetting = memoryUsageSetting;
+    }
+
+    /**
+     * Show signature of signed PDF as stamp, see {@link VisibleSignature}
+     * @param visibleSignature 
+     */
+    public void setVisibleSignature(VisibleSignature visibleSignature) {
+        this.visibleSignature = visibleSignature;
+    }
+
+    /**
+     * Copy original bytes of signed PDF with transferTo, see {@link PDFSignature#setZeroCopy(boolean)}
+     * @param zeroCopy 
+     */
+    public void setZeroCopy(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+    }
+    
     /**
      * Load Keystore with format PKCS12
      * Create Keystore using keytool from java, for example :
@@ -128,14 +162,27 @@ public class FileEncryption {
      * @return KeyStore
      */
     public static KeyStore createKeystore(String outFile, String alias, String cn,String pin){
+        return createKeystore(outFile, alias, cn, pin, KeyAlgorithm.RSA);
+    }
+    
+    /**
+     * Create Keystore for new user with key of the given algorithm, 
+     * EC and Ed25519 keys sign faster than RSA
+     * 
+     * @param outFile path file
+     * @param alias name for keystore
+     * @param cn CommonName in Certificate
+     * @param pin passphrase for PKCS12 Keystore
+     * @param keyAlgorithm algorithm of the new key
+     * @return KeyStore
+     */
+    public static KeyStore createKeystore(String outFile, String alias, String cn,String pin, KeyAlgorithm keyAlgorithm){
         KeyStore ks = null;
         try {
             ks = KeyStore.getInstance("PKCS12");
             ks.load(null,pin.toCharArray());
             
-            KeyPairGenerator keygen = KeyPairGenerator.getInstance("RSA");
-            keygen.initialize(RSA_Key_Size);
-            KeyPair pair = keygen.generateKeyPair();
+            KeyPair pair = keyAlgorithm.generateKeyPair();
             
             X509Certificate[] certs = new X509Certificate[1];
             certs[0] = createSelfSigned(pair, cn, 0);
@@ -154,7 +201,7 @@ public class FileEncryption {
                     fis.close();
                 }
             }
-        } catch (IOException | KeyStoreException | NoSuchAlgorithmException | CertificateException ex) {
+        } catch (IOException | GeneralSecurityException ex) {
             System.out.println("createKeystore : "+ex);
             JOptionPane.showMessageDialog(null,"createKeystore : "+ex);
         }
@@ -188,7 +235,7 @@ public class FileEncryption {
             Date from = new Date();
             Date to = new Date(from.getTime() + days * 86400000L);
             
-            ContentSigner cs = new JcaContentSignerBuilder("SHA256WithRSA").build(pair.getPrivate());
+            ContentSigner cs = new JcaContentSignerBuilder(KeyAlgorithm.of(pair.getPublic()).getSignatureAlgorithm()).build(pair.getPrivate());
             JcaX509v3CertificateBuilder cb = new JcaX509v3CertificateBuilder(dn, sn, from, to, dn, pair.getPublic());
             cert = new JcaX509CertificateConverter().getCertificate(cb.build(cs));
         }catch(CertificateException | OperatorCreationException ex){
@@ -237,30 +284,61 @@ public class FileEncryption {
      */
     public void signPDF(File pdfFile,KeyStore keystore, String alias, String pin, String reason){
         try{
-            // sign PDF
-            PDFSignature signing = new PDFSignature(keystore, alias, pin.toCharArray());
-
-            // Get Common Name from certificate
-            X509Certificate cert = (X509Certificate) keystore.getCertificate(alias);
-            X500Name dn = new JcaX509CertificateHolder(cert).getSubject();
-            RDN cn = dn.getRDNs(BCStyle.CN)[0];
-            RDN loc = dn.getRDNs(BCStyle.L)[0];
-            
-            String name = pdfFile.getName();
-            String substring = name.substring(0, name.lastIndexOf('.'));
-
-            File outFile = new File(pdfFile.getParent(), substring + "_signed.pdf");
-            signing.setAuthorName(IETFUtils.valueToString(cn.getFirst().getValue()));
-            signing.setLocation(IETFUtils.valueToString(loc.getFirst().getValue()));
-            signing.setReason(reason);
-            signing.signDetached(pdfFile, outFile);
-            System.out.println("PDF File "+ pdfFile.getName() +" Signed");
-        }catch(KeyStoreException | CertificateEncodingException ex){
+            signPDF(pdfFile, SignerContext.create(keystore, alias, pin.toCharArray()), reason);
+        }catch(GeneralSecurityException | IOException ex){
             System.out.println(getClass().getName()+" signPDF : "+ex);
             JOptionPane.showMessageDialog(null, getClass().getName()+" signPDF : "+ex);
         }
     }
     
+    /**
+     * Signed PDF File using prepared signer context
+     * @param pdfFile
+     * @param context
+     * @param reason 
+     * @throws IOException when signing failed, no output is left behind
+     */
+    public void signPDF(File pdfFile, SignerContext context, String reason) throws IOException {
+        // sign PDF
+        PDFSignature signing = new PDFSignature(context);
+        signing.setReason(reason);
+        signing.setExternalSigning(externalSigning);
+        signing.setMemoryUsageSetting(memoryUsageSetting);
+        signing.setVisibleSignature(visibleSignature);
+        signing.setZeroCopy(zeroCopy);
+        File outFile = getSignedFile(pdfFile);
+        try {
+            signing.signFile(pdfFile, outFile);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(outFile.toPath());
+            throw ex;
+        }
+        System.out.println("PDF File "+ pdfFile.getName() +" Signed");
+    }
+    
+    /**
+     * Get output file for signed PDF, {@code <name>_signed.pdf} next to the input
+     * @param pdfFile
+     * @return File
+     */
+    public static File getSignedFile(File pdfFile){
+        String name = pdfFile.getName();
+        int dot = name.lastIndexOf('.');
+        String substring = dot > 0 ? name.substring(0, dot) : name;
+        return new File(pdfFile.getParent(), substring + "_signed.pdf");
+    }
+    
+    /**
+     * Check whether file looks like a PDF to be signed, 
+     * skip directories and previously signed output
+     * @param f
+     * @return boolean
+     */
+    public static boolean isSignable(File f){
+        String name = f.getName().toLowerCase();
+        return f.isFile() && name.endsWith(".pdf") && !name.endsWith("_signed.pdf");
+    }
+    
     /**
      * Extract X509 Certificate from KeyStore
      * @param ks
@@ -270,9 +348,7 @@ public class FileEncryption {
     public boolean extractCert(KeyStore ks, String alias){
         try{
             X509Certificate cert = (X509Certificate) ks.getCertificate(alias);
-            X500Name dn = new JcaX509CertificateHolder(cert).getSubject();
-            RDN cn = dn.getRDNs(BCStyle.CN)[0];
-            String certName = IETFUtils.valueToString(cn.getFirst().getValue());
+            String certName = CertificateHolder.of(cert).getName();
             String certFile = "cert_"+DigestUtils.sha256Hex(certName)+".pem";
             try (FileOutputStream fos = new FileOutputStream(certFile)) {
                 fos.write("-----BEGIN CERTIFICATE-----\n".getBytes(Charset));
@@ -284,7 +360,7 @@ public class FileEncryption {
                 System.out.println("Certificate exported");
                 return true;
             }
-        }catch(IOException | KeyStoreException | CertificateEncodingException ex){
+        }catch(IOException | KeyStoreException | CertificateEncodingException | IllegalArgumentException ex){
             System.out.println(getClass().getName()+" extractCert : "+ex);
             JOptionPane.showMessageDialog(null, getClass().getName()+" extractCert : "+ex);
         }
@@ -301,9 +377,7 @@ public class FileEncryption {
     public boolean extractKey(KeyStore ks, String alias, String pin){
         try{
             X509Certificate cert = (X509Certificate) ks.getCertificate(alias);
-            X500Name dn = new JcaX509CertificateHolder(cert).getSubject();
-            RDN cn = dn.getRDNs(BCStyle.CN)[0];
-            String certName = IETFUtils.valueToString(cn.getFirst().getValue());
+            String certName = CertificateHolder.of(cert).getName();
             String keyFile = "priv_"+DigestUtils.sha256Hex(certName)+".pem";
             
             try (FileOutputStream fos = new FileOutputStream(keyFile)) {
@@ -316,7 +390,7 @@ public class FileEncryption {
                 System.out.println("Private Key exported");
                 return true;
             }
-        }catch(IOException | KeyStoreException | NoSuchAlgorithmException | UnrecoverableKeyException | CertificateEncodingException ex){
+        }catch(IOException | KeyStoreException | NoSuchAlgorithmException | UnrecoverableKeyException | IllegalArgumentException ex){
             System.out.println(getClass().getName()+" extractKey : "+ex);
             JOptionPane.showMessageDialog(null, getClass().getName()+" extractKey : "+ex);
         }
@@ -0,0 +1,260 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+
+/**
+ * Watch a folder and sign new PDF files as soon as they are completely written.
+ * 
+ * A new or modified file is signed once its size and modification time stay
+ * the same for one settle interval, files moved in atomically are picked up
+ * after a single interval. The signed file is written next to the input as
+ * {@code <name>_signed.pdf} and the input is moved to {@code processed/},
+ * or to {@code failed/} when it can not be signed, so the folder is never
+ * rescanned.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class FolderWatcher implements Closeable {
+    /**
+     * Define constant for folder name of signed inputs
+     */
+    public static final String PROCESSED_DIR = "processed";
+    
+    /**
+     * Define constant for folder name of inputs failed to sign
+     */
+    public static final String FAILED_DIR = "failed";
+    
+    private final Path dir;
+    private final SignerContext context;
+    private final String reason;
+    private final int threads;
+    private final Map<Path, long[]> pending = new HashMap<>();
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private boolean externalSigning = false;
+    private MemoryUsageSetting memoryUsageSetting = null;
+    private VisibleSignature visibleSignature = null;
+    private long settleMillis = 1000;
+    private volatile boolean running = true;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Create folder watcher
+     * @param dir folder to watch
+     * @param context prepared signer
+     * @param reason
+     * @param threads number of worker threads, {@code <= 0} means number of processors
+     */
+    public FolderWatcher(File dir, SignerContext context, String reason, int threads) {
+        this.dir = dir.toPath();
+        this.context = context;
+        this.reason = reason;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Use external signing for every file, see {@link PDFSignature#setExternalSigning(boolean)}
+     * @param externalSigning 
+     */
+    public void setExternalSigning(boolean externalSigning) {
+        this.externalSigning = externalSigning;
+    }
+
+    /**
+     * Set memory usage for loading PDF files, see {@link MemoryPolicy#parse(String)}
+     * @param memoryUsageSetting 
+     */
+    public void setMemoryUsageSetting(MemoryUsageSetting memoryUsageSetting) {
+        this.memoryUsageSetting = memoryUsageSetting;
+    }
+
+    /**
+     * Show signature of every file as stamp, see {@link VisibleSignature}
+     * @param visibleSignature 
+     */
+    public void setVisibleSignature(VisibleSignature visibleSignature) {
+        this.visibleSignature = visibleSignature;
+    }
+
+    /**
+     * Set how long size of a file must stay the same before it is signed
+     * @param settleMillis 
+     */
+    public void setSettleMillis(long settleMillis) {
+        this.settleMillis = settleMillis;
+    }
+
+    /**
+     * Watch folder until closed or interrupted
+     * @throws IOException 
+     */
+    public void run() throws IOException {
+        try {
+            watch();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private void watch() throws IOException {
+        Files.createDirectories(dir.resolve(PROCESSED_DIR));
+        Files.createDirectories(dir.resolve(FAILED_DIR));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (WatchService ws = FileSystems.getDefault().newWatchService()) {
+            dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            // pick up files written before watching started
+            rescan();
+            
+            while (running) {
+                WatchKey key = ws.poll(settleMillis, TimeUnit.MILLISECONDS);
+                if (key != null){
+                    for (WatchEvent<?> event : key.pollEvents()){
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW){
+                            rescan();
+                        }else{
+                            offer(dir.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()){
+                        break;
+                    }
+                }
+                submitSettled(pool);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stop watching and wait until files already being signed are finished
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            stopped.await(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void rescan() throws IOException {
+        File[] files = dir.toFile().listFiles(FileEncryption::isSignable);
+        if (files != null){
+            for (File f : files){
+                offer(f.toPath());
+            }
+        }
+    }
+
+    private void offer(Path p) {
+        if (!inFlight.contains(p) && FileEncryption.isSignable(p.toFile())){
+            // size and modified time as last seen, checked again after settle interval
+            pending.putIfAbsent(p, new long[]{-1, -1});
+        }
+    }
+
+    private void submitSettled(ExecutorService pool) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, long[]>> it = pending.entrySet().iterator();
+        while (it.hasNext()){
+            Map.Entry<Path, long[]> e = it.next();
+            File f = e.getKey().toFile();
+            if (!f.isFile()){
+                it.remove();
+                continue;
+            }
+            long size = f.length();
+            long modified = f.lastModified();
+            long[] seen = e.getValue();
+            if (size > 0 && size == seen[0] && modified == seen[1] && now - modified >= settleMillis){
+                it.remove();
+                inFlight.add(e.getKey());
+                pool.execute(() -> sign(e.getKey()));
+            }else{
+                seen[0] = size;
+                seen[1] = modified;
+            }
+        }
+    }
+
+    private void sign(Path input) {
+        File outFile = FileEncryption.getSignedFile(input.toFile());
+        String target = PROCESSED_DIR;
+        try {
+            PDFSignature signing = new PDFSignature(context);
+            signing.setReason(reason);
+            signing.setExternalSigning(externalSigning);
+            signing.setMemoryUsageSetting(memoryUsageSetting);
+            signing.setVisibleSignature(visibleSignature);
+            signing.signFile(input.toFile(), outFile);
+            System.out.println("PDF File "+ input.getFileName() +" Signed");
+        } catch (Exception ex) {
+            target = FAILED_DIR;
+            System.out.println("PDF File "+ input.getFileName() +" Failed : "+ex);
+            try {
+                Files.deleteIfExists(outFile.toPath());
+            } catch (IOException ignore) {
+                // keep original failure
+            }
+        }
+        try {
+            Files.move(input, dir.resolve(target).resolve(input.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            System.out.println(getClass().getName()+" move : "+ex);
+        } finally {
+            inFlight.remove(input);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+
+/**
+ * Key algorithm of the signing key, selects the CMS signature algorithm 
+ * for the document digest.
+ * 
+ * ECDSA and Ed25519 keys sign much faster than RSA and produce smaller 
+ * signatures. Ed25519 in CMS always uses SHA-512 for the document digest 
+ * (RFC 8419) and is only verified by readers supporting ISO 32002.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public enum KeyAlgorithm {
+    /**
+     * RSA 2048, e.g. SHA256WithRSA
+     */
+    RSA("RSA", "WithRSA", DigestAlgorithm.SHA256),
+    /**
+     * ECDSA on curve P-256, e.g. SHA256WithECDSA
+     */
+    EC("EC", "WithECDSA", DigestAlgorithm.SHA256),
+    /**
+     * EdDSA on curve 25519, digest of document is SHA-512
+     */
+    ED25519("Ed25519", null, DigestAlgorithm.SHA512);
+    
+    /**
+     * Define constant for EC curve of new keys
+     */
+    public static final String ec_curve = "secp256r1";
+    
+    private final String keyAlgorithm;
+    private final String signatureSuffix;
+    private final DigestAlgorithm digestAlgorithm;
+
+    private KeyAlgorithm(String keyAlgorithm, String signatureSuffix, DigestAlgorithm digestAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatureSuffix = signatureSuffix;
+        this.digestAlgorithm = digestAlgorithm;
+    }
+    
+    /**
+     * Get key algorithm of public key
+     * @param key public key of signing certificate
+     * @return KeyAlgorithm
+     * @throws IllegalArgumentException when key algorithm is not supported
+     */
+    public static KeyAlgorithm of(PublicKey key) {
+        switch (key.getAlgorithm()) {
+            case "RSA":
+                return RSA;
+            case "EC":
+            case "ECDSA":
+                return EC;
+            case "Ed25519":
+            case "EdDSA":
+                return ED25519;
+            default:
+                throw new IllegalArgumentException("Unsupported key algorithm " + key.getAlgorithm());
+        }
+    }
+    
+    /**
+     * Generate new key pair, RSA {@link FileEncryption#RSA_Key_Size} or 
+     * EC {@link #ec_curve}
+     * @return KeyPair
+     * @throws GeneralSecurityException 
+     */
+    public KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator keygen = KeyPairGenerator.getInstance(keyAlgorithm);
+        switch (this) {
+            case RSA:
+                keygen.initialize(FileEncryption.RSA_Key_Size);
+                break;
+            case EC:
+                keygen.initialize(new ECGenParameterSpec(ec_curve));
+                break;
+            default:
+                break;
+        }
+        return keygen.generateKeyPair();
+    }
+
+    /**
+     * Get JCA key algorithm name
+     * @return 
+     */
+    public String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    /**
+     * Get CMS signature algorithm with default digest
+     * @return 
+     */
+    public String getSignatureAlgorithm() {
+        return getSignatureAlgorithm(digestAlgorithm);
+    }
+
+    /**
+     * Get CMS signature algorithm for digest
+     * @param digest digest of the signed document, see {@link #getDigestAlgorithm(DigestAlgorithm)}
+     * @return e.g. SHA384WithRSA
+     */
+    public String getSignatureAlgorithm(DigestAlgorithm digest) {
+        return signatureSuffix == null ? keyAlgorithm : digest.getShortName() + signatureSuffix;
+    }
+
+    /**
+     * Check whether signature algorithm belongs to this key algorithm
+     * @param signatureAlgorithm
+     * @return true when it is one of {@link #getSignatureAlgorithm(DigestAlgorithm)}
+     */
+    public boolean isSignatureAlgorithm(String signatureAlgorithm) {
+        for (DigestAlgorithm da : DigestAlgorithm.values()){
+            if (getSignatureAlgorithm(da).equalsIgnoreCase(signatureAlgorithm)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get default digest algorithm of the signed document
+     * @return SHA-256, SHA-512 for Ed25519
+     */
+    public DigestAlgorithm getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Get digest algorithm used when preferring the given digest
+     * @param preferred
+     * @return preferred, SHA-512 for Ed25519
+     */
+    public DigestAlgorithm getDigestAlgorithm(DigestAlgorithm preferred) {
+        return signatureSuffix == null ? digestAlgorithm : preferred;
+    }
+}
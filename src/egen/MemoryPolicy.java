@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+
+/**
+ * Memory policy used by PDFBox when loading documents to sign.
+ * 
+ * Policy is written as {@code main}, {@code mixed:<MB>} or 
+ * {@code temp[:<dir>]}. With {@code mixed} at most the given megabytes 
+ * are buffered on the heap per document and the rest goes to a temporary
+ * scratch file, {@code temp} never keeps buffers on the heap.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public final class MemoryPolicy {
+    private static final long MB = 1024L * 1024L;
+    
+    private MemoryPolicy() {
+    }
+    
+    /**
+     * Parse memory policy
+     * @param policy
+     * @return MemoryUsageSetting
+     * @throws IllegalArgumentException when policy is unknown
+     */
+    public static MemoryUsageSetting parse(String policy) {
+        if (FileEncryption.isNullOrEmpty(policy)){
+            throw new IllegalArgumentException("Empty memory policy");
+        }
+        String[] p = policy.split(":", 2);
+        String arg = p.length > 1 ? p[1] : null;
+        switch (p[0].toLowerCase()) {
+            case "main":
+                return MemoryUsageSetting.setupMainMemoryOnly();
+            case "mixed":
+                if (FileEncryption.isNullOrEmpty(arg)){
+                    throw new IllegalArgumentException("Memory policy mixed needs heap size in MB, e.g. mixed:16");
+                }
+                return MemoryUsageSetting.setupMixed(Long.parseLong(arg) * MB);
+            case "temp":
+                MemoryUsageSetting setting = MemoryUsageSetting.setupTempFileOnly();
+                if (!FileEncryption.isNullOrEmpty(arg)){
+                    setting.setTempDir(new File(arg));
+                }
+                return setting;
+            default:
+                throw new IllegalArgumentException("Unknown memory policy " + policy);
+        }
+    }
+
+    /**
+     * Check whether a whole document may be buffered on the heap
+     * @param setting memory usage of the document, null means main memory only
+     * @param length document size in bytes
+     * @return true for {@code main} or when length fits the {@code mixed} heap size
+     */
+    static boolean fitsInMemory(MemoryUsageSetting setting, long length) {
+        if (setting == null){
+            return true;
+        }
+        if (!setting.useMainMemory()){
+            return false;
+        }
+        return !setting.isMainMemoryRestricted() || length <= setting.getMaxMainMemoryBytes();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+
+/**
+ * Sign one PDF by several signers in order, each signature in its own 
+ * incremental revision. The first signer certifies the document when it is
+ * not certified yet, the next signers add approval signatures allowed by 
+ * its DocMDP permission.
+ * 
+ * Revisions are kept in memory, each one is parsed in place from the buffer
+ * of the previous revision. At most two buffers, both sized for the last 
+ * revision, are used in turn, so nothing is written to disk before the last
+ * revision.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class MultiSigner {
+    private final List<PDFSignature> signers = new ArrayList<>();
+    private boolean externalSigning = false;
+    private MemoryUsageSetting memoryUsageSetting = null;
+    private SigningMetrics metrics = SigningMetrics.getDefault();
+
+    /**
+     * Add next signer
+     * @param context
+     * @param reason
+     * @return this
+     */
+    public MultiSigner add(SignerContext context, String reason) {
+        return add(context, reason, null);
+    }
+
+    /**
+     * Add next signer with its own stamp
+     * @param context
+     * @param reason
+     * @param visibleSignature stamp of this signer, null signs invisible
+     * @return this
+     */
+    public MultiSigner add(SignerContext context, String reason, VisibleSignature visibleSignature) {
+        PDFSignature signing = new PDFSignature(context);
+        signing.setReason(reason);
+        signing.setVisibleSignature(visibleSignature);
+        signers.add(signing);
+        return this;
+    }
+
+    /**
+     * Get number of signers
+     * @return 
+     */
+    public int size() {
+        return signers.size();
+    }
+
+    /**
+     * Use external signing for every revision, see {@link PDFSignature#setExternalSigning(boolean)}
+     * @param externalSigning 
+     */
+    public void setExternalSigning(boolean externalSigning) {
+        this.externalSigning = externalSigning;
+    }
+
+    /**
+     * Set memory usage for parsing every revision, see {@link MemoryPolicy#parse(String)}
+     * @param memoryUsageSetting 
+     */
+    public void setMemoryUsageSetting(MemoryUsageSetting memoryUsageSetting) {
+        this.memoryUsageSetting = memoryUsageSetting;
+    }
+
+    /**
+     * Set metrics recording every revision as one document
+     * @param metrics 
+     */
+    public void setMetrics(SigningMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sign PDF file by every signer
+     * @param inFile
+     * @param outFile
+     * @throws IOException 
+     */
+    public void signFile(File inFile, File outFile) throws IOException {
+        ByteBuffer signed;
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+            signed = signDetached(in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()));
+        }
+        try (FileOutputStream fos = new FileOutputStream(outFile)) {
+            write(signed, fos.getChannel());
+        }
+    }
+
+    /**
+     * Sign PDF in memory by every signer
+     * @param pdf
+     * @return signed document with one revision per signer
+     * @throws IOException 
+     */
+    public byte[] signDetached(byte[] pdf) throws IOException {
+        ByteBuffer signed = signDetached(ByteBuffer.wrap(pdf));
+        byte[] b = new byte[signed.remaining()];
+        signed.get(b);
+        return b;
+    }
+
+    /**
+     * Sign remaining bytes of buffer by every signer
+     * @param pdf document from position to limit, position is not changed
+     * @return signed document flipped for reading
+     * @throws IOException 
+     */
+    public ByteBuffer signDetached(ByteBuffer pdf) throws IOException {
+        if (signers.isEmpty()){
+            throw new IOException("No signer added");
+        }
+        // every revision grows the document, a buffer fitting the last one fits all
+        int size = pdf.remaining();
+        for (PDFSignature signing : signers){
+            size = signing.getSignedSizeEstimate(size);
+        }
+        
+        ByteBuffer current = pdf;
+        ByteBuffer spare = null;
+        for (PDFSignature signing : signers){
+            signing.setExternalSigning(externalSigning);
+            signing.setMemoryUsageSetting(memoryUsageSetting);
+            signing.setMetrics(metrics);
+            
+            ByteBuffer output = spare != null ? spare.clear() : ByteBuffer.allocate(size);
+            ByteBuffer signed = signing.signDetached(current, output);
+            // buffer of the previous revision is free once the next one is written
+            spare = current != pdf ? current : null;
+            current = signed;
+        }
+        return current;
+    }
+
+    private static void write(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        while (buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+}
@@ -24,14 +24,32 @@
 package egen;
 
 import digsig.PDFSigner;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.security.KeyStore;
 import java.util.Calendar;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import egen.SigningMetrics.Phase;
 import javax.swing.JOptionPane;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.ExternalSigningSupport;
 import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
 import org.apache.pdfbox.pdmodel.interactive.digitalsignature.SignatureOptions;
 
@@ -40,9 +58,20 @@ import org.apache.pdfbox.pdmodel.interactive.digitalsignature.SignatureOptions;
  * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
  */
 public class PDFSignature extends SignatureBase {
+    /**
+     * Define constant for bytes of incremental update besides the signature
+     */
+    public static final int INCREMENT_SIZE = 16 * 1024;
+    
     String authorName = PDFSigner.appName + " v"+PDFSigner.appVersion;
     String location = "Jakarta";
     String reason = "Approved";
+    boolean externalSigning = false;
+    MemoryUsageSetting memoryUsageSetting = null;
+    SigningMetrics metrics = SigningMetrics.getDefault();
+    Executor signExecutor = null;
+    VisibleSignature visibleSignature = null;
+    boolean zeroCopy = false;
 
     /**
      * Set Author Name for Signed PDF
@@ -68,6 +97,78 @@ public class PDFSignature extends SignatureBase {
         this.reason = reason;
     }
 
+    /**
+     * Use PDFBox external signing, the document digest is calculated once and
+     * only the digest is signed instead of streaming the content through the 
+     * CMS generator.
+     * @param externalSigning 
+     */
+    public void setExternalSigning(boolean externalSigning) {
+        this.externalSigning = externalSigning;
+    }
+
+    /**
+     * Check is using external signing
+     * @return 
+     */
+    public boolean isExternalSigning() {
+        return externalSigning;
+    }
+
+    /**
+     * Set memory usage for loading PDF file, null keeps PDFBox default
+     * @param memoryUsageSetting see {@link MemoryPolicy#parse(String)}
+     */
+    public void setMemoryUsageSetting(MemoryUsageSetting memoryUsageSetting) {
+        this.memoryUsageSetting = memoryUsageSetting;
+    }
+
+    /**
+     * Get memory usage for loading PDF file
+     * @return 
+     */
+    public MemoryUsageSetting getMemoryUsageSetting() {
+        return memoryUsageSetting;
+    }
+
+    /**
+     * Run the private key operation on given executor, e.g. a small pool of
+     * platform threads bounding CPU work while documents are handled by 
+     * many I/O threads. Null runs it on the calling thread.
+     * When set, signing always uses the external signing path, so the document
+     * digest is calculated on the calling thread and only the signature of the
+     * digest runs on the executor.
+     * @param signExecutor 
+     */
+    public void setSignExecutor(Executor signExecutor) {
+        this.signExecutor = signExecutor;
+    }
+
+    /**
+     * Write signed file by copying the original bytes with 
+     * {@link FileChannel#transferTo}, see {@link #signFileZeroCopy(File, File)}
+     * @param zeroCopy 
+     */
+    public void setZeroCopy(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+    }
+
+    /**
+     * Show signature as stamp on the page, null signs invisible
+     * @param visibleSignature 
+     */
+    public void setVisibleSignature(VisibleSignature visibleSignature) {
+        this.visibleSignature = visibleSignature;
+    }
+
+    /**
+     * Set metrics recording latency of every signing phase
+     * @param metrics 
+     */
+    public void setMetrics(SigningMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * Get AuthorName
      * @return 
@@ -95,6 +196,17 @@ public class PDFSignature extends SignatureBase {
     public PDFSignature(KeyStore keystore, String alias, char[] pin) {
         super(keystore, alias, pin);
     }
+
+    /**
+     * Create PDFSignature from prepared signer context, author name and 
+     * location are taken from the signing certificate.
+     * @param context 
+     */
+    public PDFSignature(SignerContext context) {
+        super(context);
+        if(context.getAuthorName() != null) this.authorName = context.getAuthorName();
+        if(context.getLocation() != null) this.location = context.getLocation();
+    }
     
     /**
      * Signs the given PDF file.
@@ -102,18 +214,246 @@ public class PDFSignature extends SignatureBase {
      * @param outFile output PDF file
      */
     public void signDetached(File inFile, File outFile){
-        try (FileOutputStream fos = new FileOutputStream(outFile)) {
-            // sign
-            PDDocument doc = PDDocument.load(inFile);
-            signDetached(doc, fos);
-            doc.close();
-            fos.close();
+        try {
+            signFile(inFile, outFile);
         } catch (Exception ex) {
             System.out.println("signDetached : "+ex);
             JOptionPane.showMessageDialog(null, "signDetached : "+ex);
         }
     }
 
+    /**
+     * Signs the given PDF file and reports failures to the caller instead of
+     * showing them, used by batch signing where one bad file must not stop the rest.
+     * @param inFile input PDF file
+     * @param outFile output PDF file
+     * @throws IOException 
+     */
+    public void signFile(File inFile, File outFile) throws IOException {
+        if (zeroCopy){
+            signFileZeroCopy(inFile, outFile);
+            return;
+        }
+        boolean success = false;
+        try (FileOutputStream fos = new FileOutputStream(outFile);
+                PDDocument doc = metrics.time(Phase.LOAD, () -> load(inFile))) {
+            metrics.addBytes(Phase.LOAD, inFile.length());
+            signDetached(doc, fos);
+            success = true;
+        } finally {
+            metrics.document(success);
+        }
+    }
+
+    /**
+     * Signs the given PDF file without passing the original bytes through 
+     * user space buffers on output. The original part of the signed file is
+     * copied by the kernel with {@link FileChannel#transferTo}, only the 
+     * incremental update is written and the signature is patched into its
+     * {@code /Contents} by a positional write. The original bytes are read 
+     * once by PDFBox for the digest.
+     * @param inFile input PDF file
+     * @param outFile output PDF file, must not be the input file
+     * @throws IOException also when both are the same file
+     */
+    public void signFileZeroCopy(File inFile, File outFile) throws IOException {
+        if (outFile.exists() && Files.isSameFile(inFile.toPath(), outFile.toPath())){
+            // truncating the output would destroy the input before it is copied
+            throw new IOException("Output must not be the input file : "+outFile);
+        }
+        SignerContext context = getSignerContext();
+        MessageDigest md = context.getMessageDigest();
+        boolean success = false;
+        try (PDDocument doc = metrics.time(Phase.LOAD, () -> load(inFile));
+                FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE, 
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = in.size();
+            metrics.addBytes(Phase.LOAD, length);
+            IncrementSink sink = new IncrementSink(length, md);
+            ExternalSigningSupport externalSigningSupport = prepareExternal(doc, sink);
+            // PDFBox passes the original bytes to the digest and the update to memory
+            metrics.time(Phase.HASH, () -> {
+                externalSigningSupport.setSignature(new byte[0]);
+                return null;
+            });
+            PDSignature signature = doc.getLastSignatureDictionary();
+            int[] byteRange = signature.getByteRange();
+            byte[] increment = sink.getIncrement();
+            byte[] hash = sink.digest(byteRange);
+            metrics.addBytes(Phase.HASH, signedBytes(signature));
+            
+            byte[] cms = metrics.time(Phase.SIGN, () -> keyOperation(() -> context.signDigest(hash)));
+            if (cms.length > (byteRange[2] - byteRange[1] - 2) / 2){
+                throw new IOException("Can't write signature, not enough space : "+cms.length);
+            }
+            
+            metrics.time(Phase.WRITE, () -> {
+                long pos = 0;
+                while (pos < length){
+                    pos += in.transferTo(pos, length - pos, out);
+                }
+                ByteBuffer update = ByteBuffer.wrap(increment);
+                while (update.hasRemaining()){
+                    pos += out.write(update, pos);
+                }
+                PreparedSignature.writeContents(out, byteRange, cms);
+                return null;
+            });
+            metrics.addBytes(Phase.WRITE, writtenBytes(signature));
+            success = true;
+        } finally {
+            context.releaseMessageDigest(md);
+            metrics.document(success);
+        }
+    }
+
+    /**
+     * Prepare PDF file for deferred signing, the incremental update is written
+     * to output with empty /Contents and the digest of its ByteRange is returned
+     * to be signed later, see {@link PreparedSignature#complete(byte[])}.
+     * Needs the certificate and signature size of the signer only.
+     * @param inFile input PDF file
+     * @param outFile prepared PDF file
+     * @return PreparedSignature
+     * @throws IOException 
+     */
+    public PreparedSignature prepareDeferred(File inFile, File outFile) throws IOException {
+        SignerContext context = getSignerContext();
+        boolean success = false;
+        try (FileOutputStream fos = new FileOutputStream(outFile);
+                PDDocument doc = metrics.time(Phase.LOAD, () -> load(inFile))) {
+            metrics.addBytes(Phase.LOAD, inFile.length());
+            ExternalSigningSupport externalSigningSupport = prepareExternal(doc, fos);
+            byte[] hash = metrics.time(Phase.HASH, () -> context.digest(externalSigningSupport.getContent()));
+            // writes the document with zero filled /Contents
+            metrics.time(Phase.WRITE, () -> {
+                externalSigningSupport.setSignature(new byte[0]);
+                return null;
+            });
+            PDSignature signature = doc.getLastSignatureDictionary();
+            metrics.addBytes(Phase.HASH, signedBytes(signature));
+            metrics.addBytes(Phase.WRITE, writtenBytes(signature));
+            success = true;
+            return new PreparedSignature(outFile.getPath(), signature.getByteRange(), context.getDigestAlgorithm().getName(), hash);
+        } finally {
+            metrics.document(success);
+        }
+    }
+
+    /**
+     * Signs PDF read from input stream and writes signed PDF to output stream.
+     * @param input PDF data, read until end of stream
+     * @param output signed PDF
+     * @throws IOException 
+     */
+    public void signDetached(InputStream input, OutputStream output) throws IOException {
+        boolean success = false;
+        CountingInputStream in = new CountingInputStream(input);
+        try (PDDocument doc = metrics.time(Phase.LOAD, () -> memoryUsageSetting == null ? 
+                PDDocument.load(in) : PDDocument.load(in, memoryUsageSetting))) {
+            metrics.addBytes(Phase.LOAD, in.count);
+            signDetached(doc, output);
+            success = true;
+        } finally {
+            metrics.document(success);
+        }
+    }
+
+    /**
+     * Signs PDF held in memory.
+     * @param pdf document
+     * @return signed document
+     * @throws IOException 
+     */
+    public byte[] signDetached(byte[] pdf) throws IOException {
+        return toArray(signDetached(ByteBuffer.wrap(pdf), null));
+    }
+
+    /**
+     * Signs PDF read from input stream into memory.
+     * @param input PDF data, read until end of stream
+     * @return signed document
+     * @throws IOException 
+     */
+    public byte[] signDetached(InputStream input) throws IOException {
+        ByteBufferOutputStream out = new ByteBufferOutputStream(
+                ByteBuffer.allocate(getSignedSizeEstimate(input.available())));
+        signDetached(input, out);
+        return toArray(out.getBuffer().flip());
+    }
+
+    /**
+     * Signs remaining bytes of buffer, the document is parsed in place 
+     * without copying, also from direct or mapped buffers.
+     * @param pdf document from position to limit, position is not changed
+     * @param output buffer for the signed document, e.g. from a pool and sized 
+     * by {@link #getSignedSizeEstimate(int)}, written from its position, 
+     * null allocates a heap buffer
+     * @return output or a larger buffer when output was too small, position
+     * and limit enclose the signed document
+     * @throws IOException 
+     */
+    public ByteBuffer signDetached(ByteBuffer pdf, ByteBuffer output) throws IOException {
+        int length = pdf.remaining();
+        ByteBufferOutputStream out = new ByteBufferOutputStream(
+                output != null ? output : ByteBuffer.allocate(getSignedSizeEstimate(length)));
+        int start = out.getBuffer().position();
+        boolean success = false;
+        try (PDDocument doc = metrics.time(Phase.LOAD, () -> load(new ByteBufferSource(pdf)))) {
+            metrics.addBytes(Phase.LOAD, length);
+            signDetached(doc, out);
+            success = true;
+        } finally {
+            metrics.document(success);
+        }
+        ByteBuffer signed = out.getBuffer();
+        // a grown buffer keeps the bytes before start at the same offsets
+        return signed.limit(signed.position()).position(start);
+    }
+
+    /**
+     * Get expected size of the signed document, the input followed by the 
+     * incremental update with the reserved signature
+     * @param length size of the document to sign
+     * @return bytes
+     * @throws IOException 
+     */
+    public int getSignedSizeEstimate(int length) throws IOException {
+        long size = (long) length + 2L * getSignerContext().getSignatureSize() + INCREMENT_SIZE;
+        return (int) Math.min(size, Integer.MAX_VALUE - 8);
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && 
+                buffer.limit() == buffer.array().length){
+            return buffer.array();
+        }
+        byte[] b = new byte[buffer.remaining()];
+        buffer.duplicate().get(b);
+        return b;
+    }
+
+    private PDDocument load(RandomAccessRead source) throws IOException {
+        ScratchFile scratchFile = new ScratchFile(memoryUsageSetting == null ? 
+                MemoryUsageSetting.setupMainMemoryOnly() : memoryUsageSetting);
+        try {
+            PDFParser parser = new PDFParser(source, "", scratchFile);
+            parser.parse();
+            return parser.getPDDocument();
+        } catch (IOException | RuntimeException ex) {
+            scratchFile.close();
+            throw ex;
+        }
+    }
+
+    private PDDocument load(File inFile) throws IOException {
+        if (memoryUsageSetting == null){
+            return PDDocument.load(inFile);
+        }
+        return PDDocument.load(inFile, memoryUsageSetting);
+    }
+
     /**
      * Sign detached PDF
      * @param document
@@ -123,6 +463,116 @@ public class PDFSignature extends SignatureBase {
     public void signDetached(PDDocument document, OutputStream output)
             throws IOException
     {
+        SignerContext context = getSignerContext();
+        boolean external = externalSigning || signExecutor != null;
+        PDSignature signature = metrics.time(Phase.PREPARE, () -> prepare(document, context, external));
+        
+        if (external){
+            // PDFBox buffers the incremental update first and writes the document on setSignature
+            long start = System.nanoTime();
+            ExternalSigningSupport externalSigningSupport;
+            try {
+                externalSigningSupport = document.saveIncrementalForExternalSigning(output);
+            } catch (IOException | RuntimeException ex) {
+                metrics.failure(Phase.WRITE);
+                throw ex;
+            }
+            long writeNanos = System.nanoTime() - start;
+            
+            byte[] hash = metrics.time(Phase.HASH, () -> context.digest(externalSigningSupport.getContent()));
+            byte[] cms = metrics.time(Phase.SIGN, () -> keyOperation(() -> context.signDigest(hash)));
+            
+            start = System.nanoTime();
+            try {
+                externalSigningSupport.setSignature(cms);
+            } catch (IOException | RuntimeException ex) {
+                metrics.failure(Phase.WRITE);
+                throw ex;
+            }
+            metrics.record(Phase.WRITE, writeNanos + System.nanoTime() - start, 0);
+            metrics.addBytes(Phase.HASH, signedBytes(signature));
+        }else{
+            // time spent in sign interface is reported as SIGN, the rest of the save as WRITE
+            long[] signNanos = new long[1];
+            boolean[] signFailed = new boolean[1];
+            document.addSignature(signature, (content) -> {
+                long start = System.nanoTime();
+                try {
+                    return sign(content);
+                } catch (IOException | RuntimeException ex) {
+                    signFailed[0] = true;
+                    metrics.failure(Phase.SIGN);
+                    throw ex;
+                } finally {
+                    signNanos[0] = System.nanoTime() - start;
+                }
+            }, signatureOptions(context));
+            showSignature(document, signature, context);
+            
+            long start = System.nanoTime();
+            try {
+                // write incremental (only for signing purpose)
+                document.saveIncremental(output);
+            } catch (IOException | RuntimeException ex) {
+                if (!signFailed[0]) metrics.failure(Phase.WRITE);
+                throw ex;
+            }
+            metrics.record(Phase.SIGN, signNanos[0], signedBytes(signature));
+            metrics.record(Phase.WRITE, System.nanoTime() - start - signNanos[0], 0);
+        }
+        metrics.addBytes(Phase.WRITE, writtenBytes(signature));
+        document.close();
+    }
+
+    /**
+     * Run private key operation on the sign executor and wait for it
+     */
+    private byte[] keyOperation(SigningMetrics.Step<byte[]> operation) throws IOException {
+        if (signExecutor == null){
+            return operation.run();
+        }
+        FutureTask<byte[]> task = new FutureTask<>(operation::run);
+        signExecutor.execute(task);
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while signing");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException){
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Add signature dictionary and buffer the incremental update for external 
+     * signing, the document is written to output when the signature is set.
+     * Used by staged signing where hashing and signing run on other threads.
+     * @param document
+     * @param output
+     * @return ExternalSigningSupport
+     * @throws IOException 
+     */
+    ExternalSigningSupport prepareExternal(PDDocument document, OutputStream output) throws IOException {
+        SignerContext context = getSignerContext();
+        return metrics.time(Phase.PREPARE, () -> {
+            prepare(document, context, true);
+            return document.saveIncrementalForExternalSigning(output);
+        });
+    }
+
+    /**
+     * Check DocMDP and create signature dictionary, register it right away
+     * when signing externally
+     */
+    private PDSignature prepare(PDDocument document, SignerContext context, boolean external) throws IOException {
         int accessPermissions = SigUtils.getMDPPermission(document);
         if (accessPermissions == 1){
             throw new IllegalStateException("No changes to the document are permitted due to DocMDP transform parameters dictionary");
@@ -142,17 +592,133 @@ public class PDFSignature extends SignatureBase {
 
         // Optional: certify 
         if (accessPermissions == 0){
-            SigUtils.setMDPPermission(document, signature, 2);
+            SigUtils.setMDPPermission(document, signature, 2, context.getDigestAlgorithm());
         }
 
+        if (external){
+            // register signature dictionary only, the digest is signed later
+            document.addSignature(signature, signatureOptions(context));
+            showSignature(document, signature, context);
+        }
+        return signature;
+    }
+
+    /**
+     * Count bytes read by PDFBox, a stream has no length up front
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0){
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0){
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Output of incremental save, the original bytes are digested and dropped,
+     * only the incremental update is kept
+     */
+    private static final class IncrementSink extends OutputStream {
+        private final long originalLength;
+        private final MessageDigest digest;
+        private final ByteArrayOutputStream increment = new ByteArrayOutputStream(INCREMENT_SIZE);
+        private long count = 0;
+
+        IncrementSink(long originalLength, MessageDigest digest) {
+            this.originalLength = originalLength;
+            this.digest = digest;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (count < originalLength){
+                int n = (int) Math.min(len, originalLength - count);
+                digest.update(b, off, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+            if (len > 0){
+                increment.write(b, off, len);
+            }
+        }
+
+        byte[] getIncrement() {
+            return increment.toByteArray();
+        }
+
+        /**
+         * Finish digest with the update around the signature gap
+         */
+        byte[] digest(int[] byteRange) throws IOException {
+            byte[] update = getIncrement();
+            int start = (int) (byteRange[1] - originalLength);
+            int end = (int) (byteRange[2] - originalLength);
+            if (count != originalLength || start < 0 || end > update.length || byteRange[2] + byteRange[3] != originalLength + update.length){
+                throw new IOException("Signature is not in the incremental update");
+            }
+            digest.update(update, 0, start);
+            digest.update(update, end, update.length - end);
+            return digest.digest();
+        }
+    }
+
+    private void showSignature(PDDocument document, PDSignature signature, SignerContext context) throws IOException {
+        if (visibleSignature != null){
+            visibleSignature.apply(document, signature, context.getCertificate());
+        }
+    }
+
+    private static SignatureOptions signatureOptions(SignerContext context) throws IOException {
         SignatureOptions signatureOptions = new SignatureOptions();
-        // Size can vary, but should be enough for purpose.
-        signatureOptions.setPreferredSignatureSize(SignatureOptions.DEFAULT_SIGNATURE_SIZE * 2);
-        // register signature dictionary and sign interface
-        document.addSignature(signature, this, signatureOptions);
+        // Reserve only what the CMS signature of this signer needs.
+        signatureOptions.setPreferredSignatureSize(context.getSignatureSize());
+        return signatureOptions;
+    }
 
-        // write incremental (only for signing purpose)
-        document.saveIncremental(output);
-        document.close();
+    /**
+     * Number of bytes covered by ByteRange of written signature
+     */
+    private static long signedBytes(PDSignature signature) {
+        int[] byteRange = signature.getByteRange();
+        return byteRange.length == 4 ? (long) byteRange[1] + byteRange[3] : 0;
+    }
+
+    /**
+     * Size of signed document
+     */
+    private static long writtenBytes(PDSignature signature) {
+        int[] byteRange = signature.getByteRange();
+        return byteRange.length == 4 ? (long) byteRange[2] + byteRange[3] : 0;
     }
 }
@@ -0,0 +1,464 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import egen.SigningMetrics.Phase;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.ExternalSigningSupport;
+
+/**
+ * Sign many PDF files as a pipeline of overlapping stages.
+ * 
+ * Every document goes through read, parse, sign and write stages, each with
+ * its own worker threads, so disk reads and writes overlap with parsing and
+ * private key operations of other documents. Stages are connected by bounded
+ * queues, a full queue blocks the previous stage, so at most
+ * {@code threads + queue capacity} documents wait in every stage.
+ * <ul>
+ * <li>read: load file bytes when the memory policy allows the whole
+ * document on the heap, otherwise the parse stage reads the file</li>
+ * <li>parse: parse PDF, add signature dictionary and hash the ByteRange</li>
+ * <li>sign: CMS generation and private key operation, the signature
+ * timestamp is requested asynchronously without holding a sign thread,
+ * at most queue capacity documents wait for the TSA</li>
+ * <li>write: write the signed document and add its LTV data</li>
+ * </ul>
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class PipelineSigner {
+    private final SignerContext context;
+    private final String reason;
+    private int readThreads = 2;
+    private int parseThreads = Runtime.getRuntime().availableProcessors();
+    private int signThreads = Runtime.getRuntime().availableProcessors();
+    private int writeThreads = 2;
+    private int queueCapacity = 4;
+    private MemoryUsageSetting memoryUsageSetting = MemoryUsageSetting.setupMainMemoryOnly();
+    private VisibleSignature visibleSignature = null;
+    private ValidationInformation validationInformation = null;
+    private SigningMetrics metrics = SigningMetrics.getDefault();
+
+    /**
+     * Create pipeline signer
+     * @param context prepared signer shared by all stages
+     * @param reason 
+     */
+    public PipelineSigner(SignerContext context, String reason) {
+        this.context = context;
+        this.reason = reason;
+    }
+
+    /**
+     * Set worker threads of every stage
+     * @param read threads loading file bytes
+     * @param parse threads parsing and hashing
+     * @param sign threads doing private key operations
+     * @param write threads writing signed files
+     */
+    public void setThreads(int read, int parse, int sign, int write) {
+        this.readThreads = Math.max(1, read);
+        this.parseThreads = Math.max(1, parse);
+        this.signThreads = Math.max(1, sign);
+        this.writeThreads = Math.max(1, write);
+    }
+
+    /**
+     * Set number of documents waiting between two stages
+     * @param queueCapacity 
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * Set memory usage for parsing PDF, see {@link MemoryPolicy#parse(String)}
+     * @param memoryUsageSetting 
+     */
+    public void setMemoryUsageSetting(MemoryUsageSetting memoryUsageSetting) {
+        this.memoryUsageSetting = memoryUsageSetting != null ? memoryUsageSetting : MemoryUsageSetting.setupMainMemoryOnly();
+    }
+
+    /**
+     * Show signature of every file as stamp, see {@link VisibleSignature}
+     * @param visibleSignature 
+     */
+    public void setVisibleSignature(VisibleSignature visibleSignature) {
+        this.visibleSignature = visibleSignature;
+    }
+
+    /**
+     * Add LTV data to every signed file in the write stage
+     * @param validationInformation null adds nothing
+     */
+    public void setValidationInformation(ValidationInformation validationInformation) {
+        this.validationInformation = validationInformation;
+    }
+
+    /**
+     * Set metrics recording latency of every phase
+     * @param metrics 
+     */
+    public void setMetrics(SigningMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sign every PDF inside directory, sorted by file name
+     * @param dir
+     * @return List of Result in file name order
+     * @throws InterruptedException 
+     */
+    public List<BatchSigner.Result> signDirectory(File dir) throws InterruptedException {
+        File[] files = dir.listFiles(FileEncryption::isSignable);
+        if (files == null){
+            return Collections.emptyList();
+        }
+        Arrays.sort(files);
+        return signFiles(Arrays.asList(files));
+    }
+
+    /**
+     * Sign list of PDF files
+     * @param files
+     * @return List of Result in the same order as files
+     * @throws InterruptedException when interrupted while submitting or waiting
+     */
+    public List<BatchSigner.Result> signFiles(List<File> files) throws InterruptedException {
+        Run run = new Run(files.size());
+        try {
+            for (int i = 0; i < files.size(); i++){
+                try {
+                    run.read.execute(run.readTask(new Job(i, files.get(i))));
+                } catch (RejectedExecutionException ex) {
+                    if (ex.getCause() instanceof InterruptedException){
+                        // the blocking handler restored the flag, report it as thrown
+                        Thread.interrupted();
+                        throw (InterruptedException) ex.getCause();
+                    }
+                    throw ex;
+                }
+            }
+            run.done.await();
+        } finally {
+            run.shutdown();
+        }
+        
+        List<BatchSigner.Result> list = new ArrayList<>(files.size());
+        Collections.addAll(list, run.results);
+        return list;
+    }
+
+    /**
+     * Stage executor with bounded queue, submitting to a full stage waits 
+     * for free space instead of failing
+     */
+    private ThreadPoolExecutor stage(int threads) {
+        RejectedExecutionHandler block = (task, executor) -> {
+            if (executor.isShutdown()){
+                throw new RejectedExecutionException("Stage stopped");
+            }
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(ex);
+            }
+        };
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, 
+                new ArrayBlockingQueue<>(queueCapacity), block);
+    }
+
+    /**
+     * Stages and results of one signFiles call, each stage hands the job 
+     * to the next one
+     */
+    private class Run {
+        final BatchSigner.Result[] results;
+        final CountDownLatch done;
+        final ThreadPoolExecutor read = stage(readThreads);
+        final ThreadPoolExecutor parse = stage(parseThreads);
+        final ThreadPoolExecutor sign = stage(signThreads);
+        final ThreadPoolExecutor write = stage(writeThreads);
+        final Semaphore timestamps = new Semaphore(queueCapacity);
+        final ExecutorService completions = Executors.newSingleThreadExecutor();
+
+        Run(int size) {
+            results = new BatchSigner.Result[size];
+            done = new CountDownLatch(size);
+        }
+
+        Runnable readTask(Job job) {
+            return () -> {
+                if (step(job, job::read)) parse(job);
+            };
+        }
+
+        void parse(Job job) {
+            submit(parse, job, () -> {
+                if (step(job, job::parse)) sign(job);
+            });
+        }
+
+        void sign(Job job) {
+            submit(sign, job, () -> {
+                if (!step(job, job::sign)) return;
+                TSAClient tsa = context.getTSAClient();
+                if (tsa == null){
+                    write(job);
+                    return;
+                }
+                // bounded like a stage queue, a slow TSA blocks the sign stage
+                try {
+                    timestamps.acquire();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    fail(job, new InterruptedIOException("Waiting for TSA interrupted"));
+                    return;
+                }
+                // no thread waits for the TSA, the job continues when the token 
+                // arrives; handing it to the write stage may block, which is done 
+                // on the completion thread, never on a thread of the TSA client
+                long start = System.nanoTime();
+                tsa.addTimeStamp(job.cms).whenCompleteAsync((cms, ex) -> {
+                    if (ex != null){
+                        timestamps.release();
+                        metrics.failure(Phase.TIMESTAMP);
+                        fail(job, ex.getCause() instanceof Exception ? (Exception) ex.getCause() : new IOException(ex));
+                    }else{
+                        metrics.record(Phase.TIMESTAMP, System.nanoTime() - start, 0);
+                        job.cms = cms;
+                        // permit is kept until the write stage took the job
+                        write(job);
+                        timestamps.release();
+                    }
+                }, completions);
+            });
+        }
+
+        void write(Job job) {
+            submit(write, job, () -> {
+                if (step(job, job::write)){
+                    results[job.index] = new BatchSigner.Result(job.input, job.output, null);
+                    done.countDown();
+                }
+            });
+        }
+
+        /**
+         * Hand job to next stage, a stopped or interrupted stage fails the
+         * job so the run still completes
+         */
+        void submit(ThreadPoolExecutor stage, Job job, Runnable task) {
+            try {
+                stage.execute(task);
+            } catch (RejectedExecutionException ex) {
+                fail(job, ex);
+            }
+        }
+
+        boolean step(Job job, SigningMetrics.Step<Void> step) {
+            try {
+                step.run();
+                return true;
+            } catch (IOException | RuntimeException ex) {
+                fail(job, ex);
+                return false;
+            }
+        }
+
+        void fail(Job job, Exception ex) {
+            job.close();
+            try {
+                Files.deleteIfExists(job.output.toPath());
+            } catch (IOException ignore) {
+                // keep original failure
+            }
+            metrics.document(false);
+            results[job.index] = new BatchSigner.Result(job.input, job.output, ex);
+            done.countDown();
+        }
+
+        void shutdown() {
+            read.shutdownNow();
+            parse.shutdownNow();
+            sign.shutdownNow();
+            write.shutdownNow();
+            completions.shutdownNow();
+        }
+    }
+
+    /**
+     * State of one document moving through the stages
+     */
+    private class Job {
+        final int index;
+        final File input;
+        final File output;
+        byte[] data;
+        PDDocument document;
+        OutputStream out;
+        ExternalSigningSupport externalSigning;
+        byte[] hash;
+        byte[] cms;
+
+        Job(int index, File input) {
+            this.index = index;
+            this.input = input;
+            this.output = FileEncryption.getSignedFile(input);
+        }
+
+        Void read() throws IOException {
+            long length = input.length();
+            if (MemoryPolicy.fitsInMemory(memoryUsageSetting, length)){
+                data = Files.readAllBytes(input.toPath());
+                length = data.length;
+            }
+            metrics.addBytes(Phase.LOAD, length);
+            return null;
+        }
+
+        Void parse() throws IOException {
+            document = metrics.time(Phase.LOAD, () -> data != null 
+                    ? PDDocument.load(data, "", null, null, memoryUsageSetting)
+                    : PDDocument.load(input, "", null, null, memoryUsageSetting));
+            data = null;
+            PDFSignature signing = new PDFSignature(context);
+            signing.setReason(reason);
+            signing.setMetrics(metrics);
+            signing.setVisibleSignature(visibleSignature);
+            out = new LazyFileOutputStream(output);
+            externalSigning = signing.prepareExternal(document, out);
+            hash = metrics.time(Phase.HASH, () -> context.digest(externalSigning.getContent()));
+            return null;
+        }
+
+        Void sign() throws IOException {
+            // timestamp is added asynchronously after this stage
+            cms = metrics.time(Phase.SIGN, () -> context.signDigest(hash, false));
+            return null;
+        }
+
+        Void write() throws IOException {
+            try {
+                metrics.time(Phase.WRITE, () -> {
+                    externalSigning.setSignature(cms);
+                    out.close();
+                    return null;
+                });
+                if (validationInformation != null){
+                    validationInformation.addValidationInformation(output);
+                }
+                metrics.addBytes(Phase.WRITE, output.length());
+                metrics.document(true);
+            } finally {
+                close();
+            }
+            return null;
+        }
+
+        void close() {
+            if (out != null){
+                try {
+                    out.close();
+                } catch (IOException ignore) {
+                    // output is deleted on failure
+                }
+                out = null;
+            }
+            if (document != null){
+                try {
+                    document.close();
+                } catch (IOException ignore) {
+                    // nothing left to release
+                }
+                document = null;
+            }
+        }
+    }
+
+    /**
+     * Output file opened on first write, PDFBox only writes the document 
+     * when the signature is set in the write stage.
+     */
+    private static class LazyFileOutputStream extends OutputStream {
+        private final File file;
+        private OutputStream out;
+
+        LazyFileOutputStream(File file) {
+            this.file = file;
+        }
+
+        private OutputStream out() throws IOException {
+            if (out == null){
+                out = new FileOutputStream(file);
+            }
+            return out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null){
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null){
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import org.apache.pdfbox.util.Hex;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
+
+/**
+ * Document prepared for deferred signing.
+ * 
+ * Created by {@link PDFSignature#prepareDeferred(java.io.File, java.io.File)},
+ * the prepared file already contains the incremental update with zero filled
+ * {@code /Contents}. Sign {@link #getDigest()} anywhere, e.g. with
+ * {@link SignerContext#signDigest(byte[])} on another machine, and call
+ * {@link #complete(byte[])} to write the CMS signature into the reserved
+ * bytes without parsing the PDF again. Use {@link #toJson()} to queue
+ * prepared documents.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class PreparedSignature {
+    private static final Gson GSON = new Gson();
+    
+    private String file;
+    private int[] byteRange;
+    private String digestAlgorithm;
+    private String digest;
+
+    PreparedSignature(String file, int[] byteRange, String digestAlgorithm, byte[] digest) {
+        this.file = file;
+        this.byteRange = byteRange.clone();
+        this.digestAlgorithm = digestAlgorithm;
+        this.digest = Base64.getEncoder().encodeToString(digest);
+    }
+
+    /**
+     * Get path of prepared PDF file
+     * @return 
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * Get ByteRange of the signature, {@code /Contents} is between 
+     * the first and the second range
+     * @return 
+     */
+    public int[] getByteRange() {
+        return byteRange.clone();
+    }
+
+    /**
+     * Get algorithm of the digest
+     * @return 
+     */
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Get digest of the ByteRange to be signed
+     * @return 
+     */
+    public byte[] getDigest() {
+        return Base64.getDecoder().decode(digest);
+    }
+
+    /**
+     * Get maximum size of CMS signature fitting into {@code /Contents}
+     * @return size in bytes
+     */
+    public int getCapacity() {
+        // hex encoded without enclosing "<>"
+        return (byteRange[2] - byteRange[1] - 2) / 2;
+    }
+
+    /**
+     * Write CMS signature into the reserved {@code /Contents} of the prepared file
+     * @param cms encoded CMS SignedData of the digest
+     * @throws IOException when file does not match the prepared ByteRange, 
+     * signature is too big or does not sign the prepared digest
+     */
+    public void complete(byte[] cms) throws IOException {
+        if (cms.length > getCapacity()){
+            throw new IOException("Can't write signature, not enough space : "+cms.length+" > "+getCapacity());
+        }
+        checkDigest(cms);
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = (long) byteRange[2] + byteRange[3];
+            if (ch.size() != size){
+                throw new IOException("Prepared file size "+ch.size()+" does not match ByteRange "+size);
+            }
+            writeContents(ch, byteRange, cms);
+            ch.force(false);
+        }
+    }
+
+    /**
+     * Check that the CMS signs the prepared digest with the prepared algorithm,
+     * a signature of another prepared file is rejected before writing
+     */
+    private void checkDigest(byte[] cms) throws IOException {
+        SignerInformation signer;
+        try {
+            signer = new CMSSignedData(cms).getSignerInfos().getSigners().iterator().next();
+        } catch (CMSException | RuntimeException ex) {
+            throw new IOException("Invalid CMS signature", ex);
+        }
+        if (digestAlgorithm != null){
+            AlgorithmIdentifier id = new DefaultDigestAlgorithmIdentifierFinder().find(digestAlgorithm);
+            if (id == null || !id.getAlgorithm().getId().equals(signer.getDigestAlgOID())){
+                throw new IOException("CMS signature digest algorithm "+signer.getDigestAlgOID()+" does not match "+digestAlgorithm);
+            }
+        }
+        if (!Arrays.equals(getDigest(), SignatureVerifier.messageDigest(signer))){
+            throw new IOException("CMS signature does not sign the digest of "+file);
+        }
+    }
+
+    /**
+     * Positional write of CMS signature as hex into {@code /Contents} at ByteRange
+     * @param ch channel of the signed file
+     * @param byteRange 
+     * @param cms 
+     * @throws IOException when file has no {@code /Contents} at ByteRange
+     */
+    static void writeContents(FileChannel ch, int[] byteRange, byte[] cms) throws IOException {
+        ByteBuffer lt = ByteBuffer.allocate(1);
+        ByteBuffer gt = ByteBuffer.allocate(1);
+        ch.read(lt, byteRange[1]);
+        ch.read(gt, byteRange[2] - 1);
+        if (lt.get(0) != '<' || gt.get(0) != '>'){
+            throw new IOException("Prepared file has no /Contents at ByteRange");
+        }
+
+        ByteBuffer hex = ByteBuffer.wrap(Hex.getBytes(cms));
+        long pos = byteRange[1] + 1;
+        while (hex.hasRemaining()){
+            pos += ch.write(hex, pos);
+        }
+    }
+
+    /**
+     * Serialize to JSON
+     * @return 
+     */
+    public String toJson() {
+        return GSON.toJson(this);
+    }
+
+    /**
+     * Read prepared signature from JSON
+     * @param json
+     * @return PreparedSignature
+     * @throws IOException when JSON is not a prepared signature
+     */
+    public static PreparedSignature fromJson(String json) throws IOException {
+        try {
+            PreparedSignature p = GSON.fromJson(json, PreparedSignature.class);
+            if (p == null || p.file == null || p.digest == null || p.byteRange == null || p.byteRange.length != 4){
+                throw new IOException("Invalid prepared signature");
+            }
+            return p;
+        } catch (JsonParseException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
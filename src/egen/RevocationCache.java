@@ -0,0 +1,535 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.pdfbox.util.Hex;
+import org.bouncycastle.asn1.DERIA5String;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.CertException;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.cert.ocsp.jcajce.JcaRespID;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+/**
+ * Cache of OCSP responses and CRLs for long term validation.
+ * 
+ * OCSP responses are cached per issuer and serial number, CRLs per issuer,
+ * in memory and, when a directory is given, on disk so later runs reuse
+ * them. An entry is used until its {@code nextUpdate}, or for
+ * {@link #DEFAULT_TTL_MILLIS} when the responder gives none. Concurrent 
+ * requests for the same entry wait for a single fetch, so many documents
+ * signed with the same chain cause one fetch per certificate per validity
+ * window. Responses are checked against the issuer before they are cached,
+ * a revoked or unknown certificate fails and is never cached.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class RevocationCache {
+    /**
+     * Define constant for lifetime of entries without nextUpdate
+     */
+    public static final long DEFAULT_TTL_MILLIS = 60 * 60 * 1000L;
+    
+    private final File dir;
+    private final HttpClient http;
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> entries = new ConcurrentHashMap<>();
+    private final AtomicLong fetches = new AtomicLong();
+    private Duration timeout = Duration.ofSeconds(30);
+    private Clock clock = Clock.systemUTC();
+
+    /**
+     * Create revocation cache
+     * @param dir directory of disk cache, null keeps entries in memory only
+     */
+    public RevocationCache(File dir) {
+        this.dir = dir;
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * Set timeout of one request to responder or CRL server
+     * @param timeout 
+     */
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Set clock deciding when entries expire, used by tests
+     * @param clock 
+     */
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Get number of requests sent to responders and CRL servers
+     * @return 
+     */
+    public long getFetchCount() {
+        return fetches.get();
+    }
+
+    /**
+     * Get OCSP response of certificate
+     * @param cert
+     * @param issuer
+     * @return encoded OCSPResponse or null when certificate has no OCSP url
+     * @throws IOException when response can not be fetched or is not valid
+     */
+    public byte[] getOcspResponse(X509Certificate cert, X509Certificate issuer) throws IOException {
+        String url = ocspUrl(cert);
+        if (url == null){
+            return null;
+        }
+        String key = "ocsp-"+issuerKey(issuer)+"-"+cert.getSerialNumber().toString(16);
+        return get(key, new Source() {
+            @Override
+            public byte[] fetch() throws IOException {
+                return fetchOcsp(url, cert, issuer);
+            }
+
+            @Override
+            public long nextUpdate(byte[] data) throws IOException {
+                return ocspNextUpdate(data, cert, issuer);
+            }
+        });
+    }
+
+    /**
+     * Get CRL of certificate issuer
+     * @param cert
+     * @param issuer
+     * @return encoded CRL or null when certificate has no CRL distribution point
+     * @throws IOException when CRL can not be fetched, is not valid or lists the certificate
+     */
+    public byte[] getCrl(X509Certificate cert, X509Certificate issuer) throws IOException {
+        String url = crlUrl(cert);
+        if (url == null){
+            return null;
+        }
+        String key = "crl-"+issuerKey(issuer);
+        // one CRL per issuer is cached, the certificate is checked on every use
+        byte[] data = get(key, new Source() {
+            @Override
+            public byte[] fetch() throws IOException {
+                return send(HttpRequest.newBuilder(URI.create(url)).timeout(timeout).GET().build());
+            }
+
+            @Override
+            public long nextUpdate(byte[] data) throws IOException {
+                return crlNextUpdate(data, issuer);
+            }
+        });
+        try {
+            X509CRL crl = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(data));
+            if (crl.isRevoked(cert)){
+                throw new RevokedException("Certificate revoked : serial "+cert.getSerialNumber().toString(16));
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+        return data;
+    }
+
+    /**
+     * Get OCSP response, or CRL when there is no OCSP responder or the
+     * responder fails
+     * @param cert
+     * @param issuer
+     * @return revocation data or null when certificate has neither
+     * @throws IOException when neither can be fetched or the certificate is revoked
+     */
+    public RevocationData getRevocationData(X509Certificate cert, X509Certificate issuer) throws IOException {
+        IOException ocspFailure = null;
+        try {
+            byte[] ocsp = getOcspResponse(cert, issuer);
+            if (ocsp != null){
+                return new RevocationData(ocsp, null);
+            }
+        } catch (RevokedException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            ocspFailure = ex;
+        }
+        byte[] crl;
+        try {
+            crl = getCrl(cert, issuer);
+        } catch (IOException ex) {
+            if (ocspFailure != null){
+                ocspFailure.addSuppressed(ex);
+                throw ocspFailure;
+            }
+            throw ex;
+        }
+        if (crl == null){
+            if (ocspFailure != null){
+                throw ocspFailure;
+            }
+            return null;
+        }
+        if (ocspFailure != null){
+            System.out.println(getClass().getName()+" OCSP failed, using CRL : "+ocspFailure);
+        }
+        return new RevocationData(null, crl);
+    }
+
+    /**
+     * Use valid entry from memory or disk, otherwise fetch once for all 
+     * waiting callers
+     */
+    private byte[] get(String key, Source source) throws IOException {
+        while (true){
+            CompletableFuture<Entry> created = new CompletableFuture<>();
+            CompletableFuture<Entry> future = entries.putIfAbsent(key, created);
+            if (future == null){
+                future = created;
+                try {
+                    created.complete(load(key, source));
+                } catch (IOException | RuntimeException ex) {
+                    entries.remove(key, created);
+                    created.completeExceptionally(ex);
+                }
+            }
+            
+            Entry entry;
+            try {
+                entry = future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while fetching revocation data", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            // a fresh fetch is used once even when the responder is already stale
+            if (future == created || clock.millis() < entry.nextUpdate){
+                return entry.data;
+            }
+            // expired, next caller fetches again
+            entries.remove(key, future);
+        }
+    }
+
+    private Entry load(String key, Source source) throws IOException {
+        File cached = dir != null ? new File(dir, key+".der") : null;
+        if (cached != null && cached.isFile()){
+            try {
+                byte[] data = Files.readAllBytes(cached.toPath());
+                long next = source.nextUpdate(data);
+                if (clock.millis() < next){
+                    return new Entry(data, next);
+                }
+            } catch (IOException ex) {
+                System.out.println(getClass().getName()+" load : "+ex);
+            }
+        }
+        
+        fetches.incrementAndGet();
+        byte[] data = source.fetch();
+        long next = source.nextUpdate(data);
+        if (cached != null){
+            dir.mkdirs();
+            // unique temp file, other processes may share the directory
+            File tmp = File.createTempFile(key, ".tmp", dir);
+            try {
+                Files.write(tmp.toPath(), data);
+                Files.move(tmp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        }
+        return new Entry(data, next);
+    }
+
+    private byte[] fetchOcsp(String url, X509Certificate cert, X509Certificate issuer) throws IOException {
+        try {
+            OCSPReqBuilder builder = new OCSPReqBuilder();
+            builder.addRequest(certificateId(cert, issuer));
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(timeout)
+                    .header("Content-Type", "application/ocsp-request")
+                    .header("Accept", "application/ocsp-response")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(builder.build().getEncoded()))
+                    .build();
+            return send(request);
+        } catch (OCSPException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private byte[] send(HttpRequest request) throws IOException {
+        try {
+            HttpResponse<byte[]> response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200){
+                throw new IOException(request.uri()+" returned HTTP "+response.statusCode());
+            }
+            return response.body();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching "+request.uri(), ex);
+        }
+    }
+
+    /**
+     * Check OCSP response is signed by issuer or its delegated responder and 
+     * get nextUpdate of the certificate status
+     */
+    private static long ocspNextUpdate(byte[] data, X509Certificate cert, X509Certificate issuer) throws IOException {
+        try {
+            OCSPResp resp = new OCSPResp(data);
+            if (resp.getStatus() != OCSPResp.SUCCESSFUL){
+                throw new IOException("OCSP response status "+resp.getStatus());
+            }
+            BasicOCSPResp basic = (BasicOCSPResp) resp.getResponseObject();
+            X509CertificateHolder responder = new JcaX509CertificateHolder(issuer);
+            for (X509CertificateHolder holder : basic.getCerts()){
+                if (basic.getResponderId().equals(new RespID(holder.getSubject()))
+                        || basic.getResponderId().equals(new JcaRespID(
+                                new JcaX509CertificateConverter().getCertificate(holder).getPublicKey(), 
+                                new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1)))){
+                    if (holder.equals(responder)){
+                        // signed by the CA itself
+                        break;
+                    }
+                    // delegated responder must be issued by the CA
+                    if (!holder.isSignatureValid(new JcaContentVerifierProviderBuilder().build(issuer))){
+                        throw new IOException("OCSP responder certificate not issued by "+issuer.getSubjectX500Principal());
+                    }
+                    SigUtils.checkResponderCertificateUsage(new JcaX509CertificateConverter().getCertificate(holder));
+                    responder = holder;
+                    break;
+                }
+            }
+            if (!basic.isSignatureValid(new JcaContentVerifierProviderBuilder().build(responder))){
+                throw new IOException("OCSP response signature not valid");
+            }
+            
+            CertificateID id = certificateId(cert, issuer);
+            for (SingleResp single : basic.getResponses()){
+                if (id.equals(single.getCertID())){
+                    CertificateStatus status = single.getCertStatus();
+                    if (status instanceof RevokedStatus){
+                        throw new RevokedException("Certificate revoked : serial "+cert.getSerialNumber().toString(16)
+                                +" at "+((RevokedStatus) status).getRevocationTime());
+                    }
+                    if (status != CertificateStatus.GOOD){
+                        throw new IOException("OCSP status unknown : serial "+cert.getSerialNumber().toString(16));
+                    }
+                    Date next = single.getNextUpdate();
+                    return next != null ? next.getTime() : single.getThisUpdate().getTime() + DEFAULT_TTL_MILLIS;
+                }
+            }
+            throw new IOException("OCSP response has no status of serial "+cert.getSerialNumber());
+        } catch (OCSPException | OperatorCreationException | GeneralSecurityException | 
+                CertException | ClassCastException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static long crlNextUpdate(byte[] data, X509Certificate issuer) throws IOException {
+        try {
+            X509CRL crl = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(data));
+            crl.verify(issuer.getPublicKey());
+            Date next = crl.getNextUpdate();
+            return next != null ? next.getTime() : crl.getThisUpdate().getTime() + DEFAULT_TTL_MILLIS;
+        } catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static CertificateID certificateId(X509Certificate cert, X509Certificate issuer) throws IOException {
+        try {
+            return new CertificateID(new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1),
+                    new JcaX509CertificateHolder(issuer), cert.getSerialNumber());
+        } catch (OCSPException | OperatorCreationException | GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static String issuerKey(X509Certificate issuer) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(issuer.getSubjectX500Principal().getEncoded());
+            md.update(issuer.getPublicKey().getEncoded());
+            return Hex.getString(md.digest()).substring(0, 32).toLowerCase();
+        } catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Get first http url of OCSP responder from Authority Information Access
+     */
+    static String ocspUrl(X509Certificate cert) throws IOException {
+        byte[] ext = cert.getExtensionValue(Extension.authorityInfoAccess.getId());
+        if (ext == null){
+            return null;
+        }
+        AuthorityInformationAccess aia = AuthorityInformationAccess.getInstance(JcaX509ExtensionUtils.parseExtensionValue(ext));
+        for (AccessDescription ad : aia.getAccessDescriptions()){
+            if (AccessDescription.id_ad_ocsp.equals(ad.getAccessMethod())){
+                String url = httpUrl(ad.getAccessLocation());
+                if (url != null){
+                    return url;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get first http url of CRL Distribution Points
+     */
+    static String crlUrl(X509Certificate cert) throws IOException {
+        byte[] ext = cert.getExtensionValue(Extension.cRLDistributionPoints.getId());
+        if (ext == null){
+            return null;
+        }
+        CRLDistPoint dp = CRLDistPoint.getInstance(JcaX509ExtensionUtils.parseExtensionValue(ext));
+        for (DistributionPoint point : dp.getDistributionPoints()){
+            DistributionPointName name = point.getDistributionPoint();
+            if (name != null && name.getType() == DistributionPointName.FULL_NAME){
+                for (GeneralName gn : GeneralNames.getInstance(name.getName()).getNames()){
+                    String url = httpUrl(gn);
+                    if (url != null){
+                        return url;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String httpUrl(GeneralName gn) {
+        if (gn.getTagNo() != GeneralName.uniformResourceIdentifier){
+            return null;
+        }
+        String url = DERIA5String.getInstance(gn.getName()).getString();
+        return url.startsWith("http://") || url.startsWith("https://") ? url : null;
+    }
+
+    /**
+     * Source of one cache entry
+     */
+    private interface Source {
+        byte[] fetch() throws IOException;
+        long nextUpdate(byte[] data) throws IOException;
+    }
+
+    private static class Entry {
+        final byte[] data;
+        final long nextUpdate;
+
+        Entry(byte[] data, long nextUpdate) {
+            this.data = data;
+            this.nextUpdate = nextUpdate;
+        }
+    }
+
+    /**
+     * OCSP response or CRL of one certificate
+     */
+    public static class RevocationData {
+        private final byte[] ocsp;
+        private final byte[] crl;
+
+        RevocationData(byte[] ocsp, byte[] crl) {
+            this.ocsp = ocsp;
+            this.crl = crl;
+        }
+
+        /**
+         * Get encoded OCSPResponse
+         * @return null when CRL is used
+         */
+        public byte[] getOcsp() {
+            return ocsp;
+        }
+
+        /**
+         * Get encoded CRL
+         * @return null when OCSP is used
+         */
+        public byte[] getCrl() {
+            return crl;
+        }
+    }
+
+    /**
+     * Certificate is revoked according to its OCSP responder or CRL
+     */
+    public static class RevokedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RevokedException(String message) {
+            super(message);
+        }
+    }
+}
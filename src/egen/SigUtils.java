@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.SortedMap;
@@ -122,6 +123,21 @@ class SigUtils {
      * @param accessPermissions The permission value (1, 2 or 3).
      */
     public static void setMDPPermission(PDDocument doc, PDSignature signature, int accessPermissions)
+    {
+        setMDPPermission(doc, signature, accessPermissions, DigestAlgorithm.SHA256);
+    }
+
+    /**
+     * Set the access permissions granted for this document in the DocMDP transform parameters
+     * dictionary with the DigestMethod of the signature digest.
+     *
+     * @param doc The document.
+     * @param signature The signature object.
+     * @param accessPermissions The permission value (1, 2 or 3).
+     * @param digestAlgorithm The digest of the signed document.
+     */
+    public static void setMDPPermission(PDDocument doc, PDSignature signature, int accessPermissions,
+            DigestAlgorithm digestAlgorithm)
     {
         COSDictionary sigDict = signature.getCOSObject();
 
@@ -135,7 +151,7 @@ class SigUtils {
         COSDictionary referenceDict = new COSDictionary();
         referenceDict.setItem(COSName.TYPE, COSName.getPDFName("SigRef"));
         referenceDict.setItem("TransformMethod", COSName.DOCMDP);
-        referenceDict.setItem("DigestMethod", COSName.getPDFName("SHA1"));
+        referenceDict.setItem("DigestMethod", COSName.getPDFName(digestAlgorithm.getShortName()));
         referenceDict.setItem("TransformParams", transformParameters);
         referenceDict.setNeedToBeUpdated(true);
 
@@ -234,15 +250,10 @@ class SigUtils {
      */
     public static PDSignature getLastRelevantSignature(PDDocument document) throws IOException
     {
-        SortedMap<Integer, PDSignature> sortedMap = new TreeMap<>();
-        for (PDSignature signature : document.getSignatureDictionaries())
-        {
-            int sigOffset = signature.getByteRange()[1];
-            sortedMap.put(sigOffset, signature);
-        }
-        if (sortedMap.size() > 0)
+        List<PDSignature> signatures = getSignaturesByOffset(document);
+        if (signatures.size() > 0)
         {
-            PDSignature lastSignature = sortedMap.get(sortedMap.lastKey());
+            PDSignature lastSignature = signatures.get(signatures.size() - 1);
             COSBase type = lastSignature.getCOSObject().getItem(COSName.TYPE);
             if (type.equals(COSName.SIG) || type.equals(COSName.DOC_TIME_STAMP))
             {
@@ -252,6 +263,27 @@ class SigUtils {
         return null;
     }
 
+    /**
+     * Gets the signatures of the document in revision order, i.e. sorted by the offset 
+     * of their /Contents. Signature dictionaries without ByteRange are skipped.
+     * 
+     * @param document to get its signatures
+     * @return signatures, first signed revision first
+     * @throws IOException
+     */
+    public static List<PDSignature> getSignaturesByOffset(PDDocument document) throws IOException
+    {
+        SortedMap<Integer, PDSignature> sortedMap = new TreeMap<>();
+        for (PDSignature signature : document.getSignatureDictionaries())
+        {
+            if (signature.getCOSObject().getDictionaryObject(COSName.BYTERANGE) instanceof COSArray)
+            {
+                sortedMap.put(signature.getByteRange()[1], signature);
+            }
+        }
+        return new ArrayList<>(sortedMap.values());
+    }
+
     static public TimeStampToken extractTimeStampTokenFromSignerInformation(SignerInformation signerInformation)
             throws CMSException, IOException, TSPException
     {
@@ -17,7 +17,6 @@ package egen;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -28,18 +27,8 @@ import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
-import java.util.Arrays;
 import javax.swing.JOptionPane;
 import org.apache.pdfbox.pdmodel.interactive.digitalsignature.SignatureInterface;
-import org.bouncycastle.cert.jcajce.JcaCertStore;
-import org.bouncycastle.cms.CMSException;
-import org.bouncycastle.cms.CMSSignedData;
-import org.bouncycastle.cms.CMSSignedDataGenerator;
-import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
-import org.bouncycastle.operator.ContentSigner;
-import org.bouncycastle.operator.OperatorCreationException;
-import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
-import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 
 /**
  * @author PDFBox
@@ -48,6 +37,7 @@ public class SignatureBase implements SignatureInterface {
     private PrivateKey privateKey;
     private Certificate[] certificateChain;
     private X509Certificate x509cert;
+    private SignerContext context;
     
     /**
      * Initialize the signature creator with a keystore (pkcs12) and pin that should be used for the
@@ -85,6 +75,18 @@ public class SignatureBase implements SignatureInterface {
         
     }
 
+    /**
+     * Initialize the signature creator with prepared signer context, 
+     * the context can be shared with other signature creators.
+     *
+     * @param context 
+     */
+    public SignatureBase(SignerContext context){
+        this.context = context;
+        this.privateKey = context.getPrivateKey();
+        this.certificateChain = context.getCertificateChain();
+    }
+
     /**
      * Set Private Key
      * @param privateKey 
@@ -92,6 +94,7 @@ public class SignatureBase implements SignatureInterface {
     public final void setPrivateKey(PrivateKey privateKey)
     {
         this.privateKey = privateKey;
+        this.context = null;
     }
 
     /**
@@ -101,6 +104,7 @@ public class SignatureBase implements SignatureInterface {
     public final void setCertificateChain(final Certificate[] certificateChain)
     {
         this.certificateChain = certificateChain;
+        this.context = null;
     }
 
     /**
@@ -112,6 +116,19 @@ public class SignatureBase implements SignatureInterface {
         return certificateChain;
     }
 
+    /**
+     * Get Signer Context, created from private key and certificate chain on first use
+     * @return
+     * @throws IOException 
+     */
+    public SignerContext getSignerContext() throws IOException
+    {
+        if (context == null){
+            context = new SignerContext(privateKey, certificateChain);
+        }
+        return context;
+    }
+
     /**
      * Sign PDF File
      * @param content
@@ -120,20 +137,7 @@ public class SignatureBase implements SignatureInterface {
      */
     @Override
     public byte[] sign(InputStream content) throws IOException {
-        try{
-            CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
-            X509Certificate cert = (X509Certificate) certificateChain[0];
-            ContentSigner sha1Signer = new JcaContentSignerBuilder("SHA256WithRSA").build(privateKey);
-            gen.addSignerInfoGenerator(new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder()
-                    .build()).build(sha1Signer, cert));
-            gen.addCertificates(new JcaCertStore(Arrays.asList(certificateChain)));
-            CMSProcessableInputStream msg = new CMSProcessableInputStream(content);
-            CMSSignedData signedData = gen.generate(msg, false);
-            
-            return signedData.getEncoded();
-        }catch (GeneralSecurityException | CMSException | OperatorCreationException e){
-            throw new IOException(e);
-        }
+        return getSignerContext().sign(content);
     }
 
     private void setCertificate(X509Certificate cert) {
@@ -0,0 +1,503 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.cms.CMSAttributes;
+import org.bouncycastle.asn1.cms.Time;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.tsp.TSPException;
+import org.bouncycastle.tsp.TimeStampToken;
+import org.bouncycastle.util.Selector;
+
+/**
+ * Verify every signature of many PDF files in parallel.
+ * 
+ * For each signature the ByteRange, the digest of the signed bytes, the CMS
+ * signature, the validity of the signing certificate at signing time and
+ * the signature timestamp, if any, are checked. Document timestamps
+ * ({@code ETSI.RFC3161}) are verified as timestamp only. Trust of the 
+ * certificate chain is not checked. Reports are in the same order as the 
+ * input files and can be written as JSON.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class SignatureVerifier {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    private static final COSName ETSI_RFC3161 = COSName.getPDFName("ETSI.RFC3161");
+    
+    /**
+     * Define constant for bytes of the file mapped at once while hashing
+     */
+    public static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    
+    private final int threads;
+
+    /**
+     * Create verifier
+     * @param threads number of worker threads, {@code <= 0} means number of processors
+     */
+    public SignatureVerifier(int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Verify every PDF inside directory, sorted by file name
+     * @param dir
+     * @return List of Report in file name order
+     * @throws InterruptedException 
+     */
+    public List<Report> verifyDirectory(File dir) throws InterruptedException {
+        File[] files = dir.listFiles((f) -> f.isFile() && f.getName().toLowerCase().endsWith(".pdf"));
+        if (files == null){
+            return Collections.emptyList();
+        }
+        Arrays.sort(files);
+        return verifyFiles(Arrays.asList(files));
+    }
+
+    /**
+     * Verify list of PDF files
+     * @param files
+     * @return List of Report in the same order as files
+     * @throws InterruptedException 
+     */
+    public List<Report> verifyFiles(List<File> files) throws InterruptedException {
+        Report[] reports = new Report[files.size()];
+        // bounded queue, when full the submitting thread verifies the file itself
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            for (int i = 0; i < reports.length; i++){
+                final int idx = i;
+                final File f = files.get(i);
+                pool.execute(() -> reports[idx] = verify(f));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        
+        List<Report> list = new ArrayList<>(reports.length);
+        Collections.addAll(list, reports);
+        return list;
+    }
+
+    /**
+     * Verify every signature of PDF file.
+     * 
+     * PDFBox only parses the document structure from the file to find the
+     * signature dictionaries, the signed ByteRange is hashed from memory 
+     * mapped windows of the file, so heap usage does not grow with file size.
+     * @param pdf
+     * @return Report, never throws
+     */
+    public Report verify(File pdf) {
+        Report report = new Report(pdf.getPath());
+        try (FileChannel ch = FileChannel.open(pdf.toPath(), StandardOpenOption.READ);
+                PDDocument doc = PDDocument.load(pdf, MemoryUsageSetting.setupTempFileOnly())) {
+            for (PDSignature sig : SigUtils.getSignaturesByOffset(doc)){
+                report.signatures.add(verify(sig, ch));
+            }
+            report.valid = !report.signatures.isEmpty();
+            for (SignatureReport s : report.signatures){
+                report.valid &= s.valid;
+            }
+        } catch (IOException | RuntimeException ex) {
+            report.error = String.valueOf(ex);
+        }
+        return report;
+    }
+
+    private SignatureReport verify(PDSignature sig, FileChannel ch) {
+        SignatureReport r = new SignatureReport();
+        try {
+            r.subFilter = sig.getSubFilter();
+            r.signDate = sig.getSignDate() != null ? sig.getSignDate().toInstant().toString() : null;
+            int[] byteRange = sig.getByteRange();
+            r.byteRange = byteRange;
+            long size = ch.size();
+            r.byteRangeValid = checkByteRange(byteRange, ch, size);
+            if (!r.byteRangeValid){
+                return r;
+            }
+            r.coversWholeDocument = (long) byteRange[2] + byteRange[3] == size;
+            byte[] contents = contents(ch, byteRange);
+            
+            if (ETSI_RFC3161.getName().equals(sig.getSubFilter())){
+                TimeStampToken tst = new TimeStampToken(new CMSSignedData(contents));
+                byte[] imprint = digest(ch, byteRange, tst.getTimeStampInfo().getHashAlgorithm().getAlgorithm().getId(), WINDOW_SIZE);
+                verifyTimeStamp(r, tst, imprint);
+                r.valid = r.timestampValid;
+                return r;
+            }
+            
+            CMSSignedData signedData = new CMSSignedData(contents);
+            SignerInformation signer = signedData.getSignerInfos().getSigners().iterator().next();
+            @SuppressWarnings("unchecked") // SignerInformation.getSID() is untyped
+            Collection<X509CertificateHolder> matches = 
+                    signedData.getCertificates().getMatches((Selector<X509CertificateHolder>) signer.getSID());
+            if (matches.isEmpty()){
+                throw new IOException("Signer certificate not found");
+            }
+            X509CertificateHolder holder = matches.iterator().next();
+            X509Certificate cert = new JcaX509CertificateConverter().getCertificate(holder);
+            r.signer = cert.getSubjectX500Principal().getName();
+            
+            byte[] digest = digest(ch, byteRange, signer.getDigestAlgOID(), WINDOW_SIZE);
+            r.digestValid = Arrays.equals(digest, messageDigest(signer));
+            // signature over signed attributes, content is given as digest only
+            CMSSignedData detached = new CMSSignedData(
+                    Collections.singletonMap(signer.getDigestAlgOID(), digest), contents);
+            SignerInformation detachedSigner = detached.getSignerInfos().get(signer.getSID());
+            try {
+                r.signatureValid = detachedSigner.verify(new JcaSimpleSignerInfoVerifierBuilder().build(holder));
+            } catch (CMSException ex) {
+                r.signatureValid = false;
+            }
+            
+            Date signingTime = signingTime(signer);
+            TimeStampToken tst = SigUtils.extractTimeStampTokenFromSignerInformation(signer);
+            if (tst != null){
+                MessageDigest md = MessageDigest.getInstance(tst.getTimeStampInfo().getHashAlgorithm().getAlgorithm().getId());
+                verifyTimeStamp(r, tst, md.digest(signer.getSignature()));
+                signingTime = tst.getTimeStampInfo().getGenTime();
+            }
+            if (signingTime == null && sig.getSignDate() != null){
+                signingTime = sig.getSignDate().getTime();
+            }
+            r.certificateValid = signingTime != null && holder.isValidOn(signingTime);
+            r.valid = r.digestValid && r.signatureValid && r.certificateValid && 
+                    (r.timestampValid == null || r.timestampValid);
+        } catch (IOException | CMSException | TSPException | GeneralSecurityException | 
+                OperatorCreationException | RuntimeException ex) {
+            r.error = String.valueOf(ex);
+            r.valid = false;
+        }
+        return r;
+    }
+
+    /**
+     * ByteRange starts at 0 and leaves out exactly the hex string of /Contents
+     */
+    private static boolean checkByteRange(int[] byteRange, FileChannel ch, long size) throws IOException {
+        if (byteRange.length != 4 || byteRange[0] != 0 || byteRange[1] < 0 || 
+                byteRange[2] <= byteRange[1] || byteRange[3] < 0 || 
+                (long) byteRange[2] + byteRange[3] > size){
+            return false;
+        }
+        ByteBuffer lt = ByteBuffer.allocate(1);
+        ByteBuffer gt = ByteBuffer.allocate(1);
+        ch.read(lt, byteRange[1]);
+        ch.read(gt, byteRange[2] - 1);
+        return lt.get(0) == '<' && gt.get(0) == '>';
+    }
+
+    /**
+     * Decode hex string of /Contents between the two ranges
+     */
+    private static byte[] contents(FileChannel ch, int[] byteRange) throws IOException {
+        ByteBuffer hex = ch.map(FileChannel.MapMode.READ_ONLY, byteRange[1] + 1, byteRange[2] - byteRange[1] - 2);
+        byte[] out = new byte[hex.remaining() / 2];
+        for (int i = 0; i < out.length; i++){
+            out[i] = (byte) ((hexValue(hex.get()) << 4) | hexValue(hex.get()));
+        }
+        return out;
+    }
+
+    private static int hexValue(byte b) throws IOException {
+        int v = Character.digit(b, 16);
+        if (v < 0){
+            throw new IOException("Invalid hex in /Contents");
+        }
+        return v;
+    }
+
+    /**
+     * Hash the two ByteRange segments from memory mapped windows, direct 
+     * buffers are passed to the digest without copying the file into heap.
+     * @param ch
+     * @param byteRange
+     * @param algorithm digest algorithm OID
+     * @param window bytes mapped at once
+     * @return digest
+     */
+    static byte[] digest(FileChannel ch, int[] byteRange, String algorithm, int window) 
+            throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance(algorithm);
+        for (int i = 0; i < byteRange.length; i += 2){
+            long pos = byteRange[i];
+            long end = pos + byteRange[i + 1];
+            while (pos < end){
+                int len = (int) Math.min(window, end - pos);
+                md.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, len));
+                pos += len;
+            }
+        }
+        return md.digest();
+    }
+
+    private void verifyTimeStamp(SignatureReport r, TimeStampToken tst, byte[] imprint) throws IOException, OperatorCreationException {
+        r.timestamp = tst.getTimeStampInfo().getGenTime().toInstant().toString();
+        try {
+            SigUtils.validateTimestampToken(tst);
+            r.timestampValid = Arrays.equals(imprint, tst.getTimeStampInfo().getMessageImprintDigest());
+        } catch (TSPException | CertificateException ex) {
+            r.timestampValid = false;
+        }
+    }
+
+    /**
+     * Message digest signed attribute, null when signer has no signed attributes
+     */
+    static byte[] messageDigest(SignerInformation signer) {
+        AttributeTable attrs = signer.getSignedAttributes();
+        Attribute attr = attrs != null ? attrs.get(CMSAttributes.messageDigest) : null;
+        if (attr == null){
+            return null;
+        }
+        return ASN1OctetString.getInstance(attr.getAttrValues().getObjectAt(0)).getOctets();
+    }
+
+    private static Date signingTime(SignerInformation signer) {
+        AttributeTable attrs = signer.getSignedAttributes();
+        Attribute attr = attrs != null ? attrs.get(CMSAttributes.signingTime) : null;
+        if (attr == null){
+            return null;
+        }
+        return Time.getInstance(attr.getAttrValues().getObjectAt(0)).getDate();
+    }
+
+    /**
+     * Write reports as JSON
+     * @param reports
+     * @return JSON array
+     */
+    public static String toJson(List<Report> reports) {
+        return GSON.toJson(reports);
+    }
+
+    /**
+     * Verification result of one PDF file
+     */
+    public static class Report {
+        private final String file;
+        private boolean valid = false;
+        private String error;
+        private final List<SignatureReport> signatures = new ArrayList<>();
+
+        Report(String file) {
+            this.file = file;
+        }
+
+        /**
+         * Get verified file
+         * @return 
+         */
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * Check file has signatures and all of them are valid
+         * @return 
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * Get error when file can not be read
+         * @return null when file was read
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Get result of every signature in document order
+         * @return 
+         */
+        public List<SignatureReport> getSignatures() {
+            return Collections.unmodifiableList(signatures);
+        }
+    }
+
+    /**
+     * Verification result of one signature
+     */
+    public static class SignatureReport {
+        private String subFilter;
+        private String signer;
+        private String signDate;
+        private int[] byteRange;
+        private boolean byteRangeValid = false;
+        private boolean coversWholeDocument = false;
+        private boolean digestValid = false;
+        private boolean signatureValid = false;
+        private boolean certificateValid = false;
+        private String timestamp;
+        private Boolean timestampValid;
+        private boolean valid = false;
+        private String error;
+
+        /**
+         * Get SubFilter of signature dictionary
+         * @return 
+         */
+        public String getSubFilter() {
+            return subFilter;
+        }
+
+        /**
+         * Get subject of signing certificate
+         * @return 
+         */
+        public String getSigner() {
+            return signer;
+        }
+
+        /**
+         * Get signing time claimed by signature dictionary
+         * @return ISO-8601 instant
+         */
+        public String getSignDate() {
+            return signDate;
+        }
+
+        /**
+         * Get ByteRange
+         * @return 
+         */
+        public int[] getByteRange() {
+            return byteRange != null ? byteRange.clone() : null;
+        }
+
+        /**
+         * Check ByteRange leaves out /Contents only
+         * @return 
+         */
+        public boolean isByteRangeValid() {
+            return byteRangeValid;
+        }
+
+        /**
+         * Check signature covers the whole file, false for signatures 
+         * followed by later revisions
+         * @return 
+         */
+        public boolean isCoversWholeDocument() {
+            return coversWholeDocument;
+        }
+
+        /**
+         * Check digest of ByteRange matches signed message digest
+         * @return 
+         */
+        public boolean isDigestValid() {
+            return digestValid;
+        }
+
+        /**
+         * Check CMS signature value
+         * @return 
+         */
+        public boolean isSignatureValid() {
+            return signatureValid;
+        }
+
+        /**
+         * Check certificate was valid at signing time
+         * @return 
+         */
+        public boolean isCertificateValid() {
+            return certificateValid;
+        }
+
+        /**
+         * Get time of the timestamp token
+         * @return ISO-8601 instant or null without timestamp
+         */
+        public String getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Check timestamp token and its message imprint
+         * @return null without timestamp
+         */
+        public Boolean getTimestampValid() {
+            return timestampValid;
+        }
+
+        /**
+         * Check all verifications passed
+         * @return 
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * Get error of verification
+         * @return 
+         */
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,595 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cms.CMSAbsentContent;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.SignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.RuntimeOperatorException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.util.CollectionStore;
+import org.bouncycastle.util.Store;
+
+/**
+ * Prepared signer for one keystore alias.
+ * 
+ * Unlocks the private key, validates the certificate and parses the
+ * subject DN once, so the same context can be shared by many signing
+ * threads. CMS generators, digests and buffers are not thread safe and 
+ * are taken from small pools, since BouncyCastle content signers are 
+ * stateful; unlike thread locals the pools are also reused by short lived
+ * virtual threads. The private key operation can also be
+ * done by a {@link KeySigner}, then the key never enters this process.
+ * A context never changes once created, other digest or TSA options are 
+ * new contexts from {@link #withDigestAlgorithm(DigestAlgorithm)} and 
+ * {@link #withTSAClient(TSAClient)}.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public final class SignerContext {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int POOL_SIZE = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+    
+    /**
+     * Define constant for extra bytes reserved on top of the measured CMS size,
+     * covers encoding differences of signing time and signature value.
+     */
+    public static final int SIGNATURE_SIZE_MARGIN = 64;
+    
+    /**
+     * Define constant for extra bytes reserved for the timestamp token, 
+     * covers different serial number, nonce and time precision of the TSA.
+     */
+    public static final int TIMESTAMP_SIZE_MARGIN = 256;
+    
+    private final PrivateKey privateKey;
+    private final KeySigner keySigner;
+    private final Certificate[] certificateChain;
+    private final X509Certificate certificate;
+    private final KeyAlgorithm keyAlgorithm;
+    private final X509CertificateHolder certificateHolder;
+    private final Store<X509CertificateHolder> certStore;
+    private final DigestCalculatorProvider digestProvider;
+    private final String authorName;
+    private final String location;
+    private final Generators generators;
+    private final Pool<byte[]> buffer;
+    private final ThreadLocal<byte[]> precomputedDigest = new ThreadLocal<>();
+    private final TSAClient tsaClient;
+    private volatile int signatureSize = 0;
+    private boolean fixedSignatureSize = false;
+
+    /**
+     * Create signer context from private key and certificate chain
+     * @param privateKey
+     * @param certificateChain first entry is the signing certificate
+     * @throws IOException
+     */
+    public SignerContext(PrivateKey privateKey, Certificate[] certificateChain) throws IOException {
+        this(privateKey, null, certificateChain);
+        if (privateKey == null){
+            throw new IOException("Could not find private key");
+        }
+    }
+
+    /**
+     * Create signer context with private key operation done by KeySigner
+     * @param keySigner
+     * @param certificateChain first entry is the signing certificate
+     * @throws IOException
+     */
+    public SignerContext(KeySigner keySigner, Certificate[] certificateChain) throws IOException {
+        this(null, keySigner, certificateChain);
+        if (keySigner == null){
+            throw new IOException("Could not find key signer");
+        }
+    }
+
+    private SignerContext(PrivateKey privateKey, KeySigner keySigner, Certificate[] certificateChain) throws IOException {
+        if (certificateChain == null || certificateChain.length == 0 || 
+                !(certificateChain[0] instanceof X509Certificate)){
+            throw new IOException("Could not find certificate");
+        }
+        this.privateKey = privateKey;
+        this.keySigner = keySigner;
+        this.certificateChain = certificateChain.clone();
+        this.certificate = (X509Certificate) certificateChain[0];
+        try {
+            this.keyAlgorithm = KeyAlgorithm.of(certificate.getPublicKey());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage());
+        }
+        try {
+            List<X509CertificateHolder> holders = new ArrayList<>(this.certificateChain.length);
+            for (Certificate c : this.certificateChain){
+                if (c instanceof X509Certificate){
+                    holders.add(new JcaX509CertificateHolder((X509Certificate) c));
+                }
+            }
+            this.certStore = new CollectionStore<>(holders);
+            this.digestProvider = new JcaDigestCalculatorProviderBuilder().build();
+        } catch (CertificateEncodingException | OperatorCreationException ex) {
+            throw new IOException(ex);
+        }
+        
+        CertificateHolder ch;
+        try {
+            ch = CertificateHolder.of(certificate);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getCause());
+        }
+        this.certificateHolder = ch.getHolder();
+        this.authorName = ch.getName();
+        this.location = ch.getLocation();
+        this.generators = new Generators(keyAlgorithm.getDigestAlgorithm());
+        this.buffer = new Pool<>(() -> new byte[BUFFER_SIZE]);
+        this.tsaClient = null;
+    }
+
+    /**
+     * Copy of context with another digest or TSA, key and certificates are shared
+     */
+    private SignerContext(SignerContext context, DigestAlgorithm digestAlgorithm, TSAClient tsaClient) {
+        this.privateKey = context.privateKey;
+        this.keySigner = context.keySigner;
+        this.certificateChain = context.certificateChain;
+        this.certificate = context.certificate;
+        this.keyAlgorithm = context.keyAlgorithm;
+        this.certificateHolder = context.certificateHolder;
+        this.certStore = context.certStore;
+        this.digestProvider = context.digestProvider;
+        this.authorName = context.authorName;
+        this.location = context.location;
+        this.generators = new Generators(keyAlgorithm.getDigestAlgorithm(digestAlgorithm));
+        this.buffer = context.buffer;
+        this.tsaClient = tsaClient;
+        // size given to prepareOnly already covers the signing context
+        this.fixedSignatureSize = context.fixedSignatureSize;
+        this.signatureSize = fixedSignatureSize ? context.signatureSize : 0;
+    }
+
+    /**
+     * Create signer context from keystore, checking certificate validity and usage
+     * @param keystore is a pkcs12 keystore.
+     * @param alias
+     * @param pin is the pin for the keystore / private key
+     * @return SignerContext
+     * @throws GeneralSecurityException
+     * @throws IOException 
+     */
+    public static SignerContext create(KeyStore keystore, String alias, char[] pin) 
+            throws GeneralSecurityException, IOException {
+        PrivateKey key = (PrivateKey) keystore.getKey(alias, pin);
+        Certificate[] certChain = keystore.getCertificateChain(alias);
+        if (certChain != null && certChain.length > 0 && certChain[0] instanceof X509Certificate){
+            X509Certificate cert = (X509Certificate) certChain[0];
+            // avoid expired certificate
+            cert.checkValidity();
+            SigUtils.checkCertificateUsage(cert);
+        }
+        return new SignerContext(key, certChain);
+    }
+
+    /**
+     * Create signer context without private key, only for preparing documents
+     * on a machine without access to the key, see 
+     * {@link PDFSignature#prepareDeferred(java.io.File, java.io.File)}
+     * @param certificateChain first entry is the signing certificate
+     * @param signatureSize bytes to reserve, {@link #getSignatureSize()} of the signing context
+     * @return SignerContext
+     * @throws IOException 
+     */
+    public static SignerContext prepareOnly(Certificate[] certificateChain, int signatureSize) throws IOException {
+        SignerContext context = new SignerContext((KeySigner) (data, algorithm) -> {
+            throw new IOException("No private key, signer can only prepare documents");
+        }, certificateChain);
+        context.signatureSize = signatureSize;
+        context.fixedSignatureSize = true;
+        return context;
+    }
+
+    /**
+     * Create context adding signature timestamp from TSA to every signature
+     * @param tsaClient null signs without timestamp
+     * @return new SignerContext sharing key and certificates of this context
+     */
+    public SignerContext withTSAClient(TSAClient tsaClient) {
+        return new SignerContext(this, generators.digestAlgorithm, tsaClient);
+    }
+
+    /**
+     * Get TSA client
+     * @return null without timestamp
+     */
+    public TSAClient getTSAClient() {
+        return tsaClient;
+    }
+
+    /**
+     * Create context signing with another digest, the digest of a context 
+     * never changes so hash, signature and DocMDP of one document always agree.
+     * Ed25519 keys always use SHA-512.
+     * @param digestAlgorithm preferred digest, see {@link DigestAlgorithm#fastest(DigestAlgorithm...)}
+     * @return new SignerContext sharing key and certificates of this context
+     */
+    public SignerContext withDigestAlgorithm(DigestAlgorithm digestAlgorithm) {
+        return new SignerContext(this, digestAlgorithm, tsaClient);
+    }
+
+    private CMSSignedDataGenerator createGenerator(DigestCalculatorProvider provider, String signatureAlgorithm) {
+        try {
+            CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
+            ContentSigner signer = privateKey != null ? 
+                    new JcaContentSignerBuilder(signatureAlgorithm).build(privateKey) : new KeySignerContentSigner(signatureAlgorithm);
+            gen.addSignerInfoGenerator(new SignerInfoGeneratorBuilder(provider).build(signer, certificateHolder));
+            gen.addCertificates(certStore);
+            return gen;
+        } catch (OperatorCreationException | CMSException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Create detached CMS signature of content
+     * @param content
+     * @return encoded CMS SignedData
+     * @throws IOException 
+     */
+    public byte[] sign(InputStream content) throws IOException {
+        Pool<CMSSignedDataGenerator> pool = generators.generator;
+        CMSSignedDataGenerator gen = null;
+        byte[] cms;
+        try {
+            gen = pool.take();
+            cms = gen.generate(new CMSProcessableInputStream(content), false).getEncoded();
+        } catch (CMSException | IllegalStateException | RuntimeOperatorException ex) {
+            throw new IOException(ex);
+        } finally {
+            pool.give(gen);
+        }
+        return timeStamp(cms);
+    }
+
+    /**
+     * Take reset digest from the pool, for callers feeding the signed content 
+     * themselves, give it back with {@link #releaseMessageDigest(MessageDigest)}
+     * @return MessageDigest of {@link #getDigestAlgorithm()}
+     */
+    MessageDigest getMessageDigest() {
+        MessageDigest md = generators.messageDigest.take();
+        md.reset();
+        return md;
+    }
+
+    /**
+     * Give digest taken by {@link #getMessageDigest()} back to the pool
+     * @param md 
+     */
+    void releaseMessageDigest(MessageDigest md) {
+        generators.messageDigest.give(md);
+    }
+
+    /**
+     * Calculate document digest in a single pass with a pooled digest
+     * @param content data to be signed, closed after reading
+     * @return digest of content
+     * @throws IOException 
+     */
+    public byte[] digest(InputStream content) throws IOException {
+        Pool<MessageDigest> digests = generators.messageDigest;
+        MessageDigest md = digests.take();
+        byte[] buf = buffer.take();
+        md.reset();
+        try (InputStream in = content) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                md.update(buf, 0, n);
+            }
+            return md.digest();
+        } finally {
+            buffer.give(buf);
+            digests.give(md);
+        }
+    }
+
+    /**
+     * Create detached CMS signature with signed attributes from document digest,
+     * the content itself is not needed anymore.
+     * @param hash digest of the content calculated with {@link #getDigestAlgorithm()}
+     * @return encoded CMS SignedData
+     * @throws IOException 
+     */
+    public byte[] signDigest(byte[] hash) throws IOException {
+        return timeStamp(signDigest(hash, false));
+    }
+
+    /**
+     * Create detached CMS signature from document digest
+     * @param hash digest of the content calculated with {@link #getDigestAlgorithm()}
+     * @param timeStamp false leaves out the timestamp, add it later with 
+     * {@link TSAClient#addTimeStamp(byte[])}
+     * @return encoded CMS SignedData
+     * @throws IOException 
+     */
+    byte[] signDigest(byte[] hash, boolean timeStamp) throws IOException {
+        if (timeStamp){
+            return signDigest(hash);
+        }
+        Generators g = generators;
+        if (hash.length != g.digestLength){
+            throw new IOException("Digest length "+hash.length+" does not match "+g.digestAlgorithm.getName());
+        }
+        CMSSignedDataGenerator gen = null;
+        precomputedDigest.set(hash.clone());
+        try {
+            gen = g.hashGenerator.take();
+            return gen.generate(new CMSAbsentContent(), false).getEncoded();
+        } catch (CMSException | IllegalStateException | RuntimeOperatorException ex) {
+            throw new IOException(ex);
+        } finally {
+            precomputedDigest.remove();
+            g.hashGenerator.give(gen);
+        }
+    }
+
+    private byte[] timeStamp(byte[] cms) throws IOException {
+        TSAClient tsa = tsaClient;
+        return tsa == null ? cms : TSAClient.await(tsa.addTimeStamp(cms));
+    }
+
+    /**
+     * Get number of bytes to reserve for the CMS signature in /Contents.
+     * 
+     * The size of CMS SignedData only depends on the key, the encoded 
+     * certificate chain and the attributes, so it is measured once with a 
+     * dummy digest and cached for every document signed by this context.
+     * With a TSA client the dummy signature is time stamped once as well.
+     * @return signature size in bytes
+     * @throws IOException 
+     */
+    public int getSignatureSize() throws IOException {
+        int size = signatureSize;
+        if (size == 0){
+            byte[] dummy = new byte[generators.digestLength];
+            size = signDigest(dummy).length + SIGNATURE_SIZE_MARGIN;
+            if (tsaClient != null){
+                size += TIMESTAMP_SIZE_MARGIN;
+            }
+            signatureSize = size;
+        }
+        return size;
+    }
+
+    /**
+     * Digest calculator provider returning the digest set by signDigest, 
+     * so the content is never streamed through BouncyCastle.
+     */
+    private class PrecomputedDigestProvider implements DigestCalculatorProvider {
+        @Override
+        public DigestCalculator get(AlgorithmIdentifier digestAlgorithmIdentifier) throws OperatorCreationException {
+            final DigestCalculator calc = digestProvider.get(digestAlgorithmIdentifier);
+            return new DigestCalculator() {
+                @Override
+                public AlgorithmIdentifier getAlgorithmIdentifier() {
+                    return calc.getAlgorithmIdentifier();
+                }
+
+                @Override
+                public OutputStream getOutputStream() {
+                    return calc.getOutputStream();
+                }
+
+                @Override
+                public byte[] getDigest() {
+                    byte[] hash = precomputedDigest.get();
+                    if (hash == null){
+                        throw new IllegalStateException("No precomputed digest");
+                    }
+                    return hash;
+                }
+            };
+        }
+    }
+
+    /**
+     * Pooled CMS generators and digests for the digest algorithm of the context
+     */
+    private final class Generators {
+        private final DigestAlgorithm digestAlgorithm;
+        private final int digestLength;
+        private final Pool<CMSSignedDataGenerator> generator;
+        private final Pool<CMSSignedDataGenerator> hashGenerator;
+        private final Pool<MessageDigest> messageDigest;
+
+        private Generators(DigestAlgorithm digestAlgorithm) {
+            String signatureAlgorithm = keyAlgorithm.getSignatureAlgorithm(digestAlgorithm);
+            this.digestAlgorithm = digestAlgorithm;
+            this.generator = new Pool<>(() -> createGenerator(digestProvider, signatureAlgorithm));
+            this.hashGenerator = new Pool<>(() -> createGenerator(new PrecomputedDigestProvider(), signatureAlgorithm));
+            this.messageDigest = new Pool<>(digestAlgorithm::createMessageDigest);
+            MessageDigest md = messageDigest.take();
+            this.digestLength = md.getDigestLength();
+            messageDigest.give(md);
+        }
+    }
+
+    /**
+     * Bounded pool of objects used by one thread at a time. Objects are taken 
+     * by any thread, so one per document virtual threads reuse them like 
+     * platform threads; objects beyond the bound are left to the collector.
+     */
+    private static final class Pool<T> {
+        private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final Supplier<T> factory;
+
+        private Pool(Supplier<T> factory) {
+            this.factory = factory;
+        }
+
+        T take() {
+            T t = idle.poll();
+            if (t == null){
+                return factory.get();
+            }
+            size.decrementAndGet();
+            return t;
+        }
+
+        void give(T t) {
+            if (t == null){
+                return;
+            }
+            if (size.incrementAndGet() <= POOL_SIZE){
+                idle.offer(t);
+            }else{
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Content signer passing the encoded signed attributes to the KeySigner
+     */
+    private class KeySignerContentSigner implements ContentSigner {
+        private final String signatureAlgorithm;
+        private final AlgorithmIdentifier algorithm;
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream(512);
+
+        private KeySignerContentSigner(String signatureAlgorithm) {
+            this.signatureAlgorithm = signatureAlgorithm;
+            this.algorithm = new DefaultSignatureAlgorithmIdentifierFinder().find(signatureAlgorithm);
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return algorithm;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            data.reset();
+            return data;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            try {
+                return keySigner.sign(data.toByteArray(), signatureAlgorithm);
+            } catch (IOException ex) {
+                throw new RuntimeOperatorException("Key signer failed : "+ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Get key algorithm of signing certificate
+     * @return 
+     */
+    public KeyAlgorithm getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    /**
+     * Get digest algorithm of signed documents, see {@link #withDigestAlgorithm(DigestAlgorithm)}
+     * @return 
+     */
+    public DigestAlgorithm getDigestAlgorithm() {
+        return generators.digestAlgorithm;
+    }
+
+    /**
+     * Get CMS signature algorithm of key and digest algorithm
+     * @return e.g. SHA384WithRSA
+     */
+    public String getSignatureAlgorithm() {
+        return keyAlgorithm.getSignatureAlgorithm(generators.digestAlgorithm);
+    }
+
+    /**
+     * Get Private Key
+     * @return null when signing with a KeySigner
+     */
+    public PrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    /**
+     * Get Certificate Chain
+     * @return copy of certificate chain
+     */
+    public Certificate[] getCertificateChain() {
+        return certificateChain.clone();
+    }
+
+    /**
+     * Get signing X509 Certificate
+     * @return 
+     */
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    /**
+     * Get Common Name of signing certificate
+     * @return 
+     */
+    public String getAuthorName() {
+        return authorName;
+    }
+
+    /**
+     * Get Location of signing certificate
+     * @return 
+     */
+    public String getLocation() {
+        return location;
+    }
+}
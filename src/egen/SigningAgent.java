@@ -0,0 +1,370 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+
+/**
+ * Signing agent keeping an unlocked key in memory, like ssh-agent.
+ * 
+ * The agent listens on a Unix domain socket and does the private key
+ * operation for {@link AgentClient}, so short running processes never load
+ * the keystore nor ask for its password. Only the owner of the agent can
+ * connect: the socket is bound in a fresh directory of mode {@code 700},
+ * set to mode {@code 600} and only then moved to its path, so it is never
+ * reachable with default permissions, also in a shared directory. The peer
+ * user is checked on every connection where the platform supports it. The
+ * key is dropped and the agent stops when it is not used for the idle
+ * timeout.
+ * 
+ * Every request starts with one operation byte, every response with one
+ * status byte followed by a length prefixed payload:
+ * <ul>
+ * <li>{@link #OP_CHAIN}: payload is the certificate chain as PkiPath</li>
+ * <li>{@link #OP_SIGN}: request carries length prefixed data, payload is
+ * the signature value of the data with the agent digest algorithm</li>
+ * <li>{@link #OP_SIGN_WITH}: request carries the length prefixed UTF-8 
+ * signature algorithm before the data, only algorithms of the agent key 
+ * are accepted</li>
+ * </ul>
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class SigningAgent implements Closeable {
+    /**
+     * Define constant for request of the certificate chain
+     */
+    public static final byte OP_CHAIN = 1;
+    
+    /**
+     * Define constant for request to sign data
+     */
+    public static final byte OP_SIGN = 2;
+    
+    /**
+     * Define constant for request to sign data with given signature algorithm
+     */
+    public static final byte OP_SIGN_WITH = 3;
+    
+    /**
+     * Define constant for successful response
+     */
+    public static final byte STATUS_OK = 0;
+    
+    /**
+     * Define constant for failed response, payload is the UTF-8 message
+     */
+    public static final byte STATUS_ERROR = 1;
+    
+    /**
+     * Define constant for maximum size of data to sign
+     */
+    public static final int MAX_DATA = 1024 * 1024;
+    
+    private final Path socket;
+    private final int threads;
+    private volatile SignerContext context;
+    private long idleTimeout = 0;
+    private volatile long lastUsed = System.nanoTime();
+    private ServerSocketChannel server;
+    private ExecutorService executor;
+    private ScheduledExecutorService timer;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Create signing agent
+     * @param socket path of Unix domain socket
+     * @param context unlocked signer, must hold a private key
+     * @param threads number of concurrent clients, {@code <= 0} means number of processors
+     */
+    public SigningAgent(Path socket, SignerContext context, int threads) {
+        this.socket = socket.toAbsolutePath();
+        this.context = context;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Set how long the key is kept without any request
+     * @param idleTimeout milliseconds, {@code <= 0} keeps the key until closed
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Get socket path
+     * @return 
+     */
+    public Path getSocket() {
+        return socket;
+    }
+
+    /**
+     * Start listening on the socket
+     * @throws IOException when socket is used by a running agent or the 
+     * path exists and is not a socket
+     */
+    public void start() throws IOException {
+        if (context == null || context.getPrivateKey() == null){
+            throw new IOException("Signing agent needs a private key");
+        }
+        Path dir = socket.getParent();
+        if (!Files.isDirectory(dir)){
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        }
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)){
+            if (!Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()){
+                throw new IOException("Signing agent path exists and is not a socket: "+socket);
+            }
+            if (isListening(socket)){
+                throw new IOException("Signing agent already running on "+socket);
+            }
+            // stale socket of a stopped agent
+            Files.delete(socket);
+        }
+        
+        Path bindDir = Files.createTempDirectory(dir, ".agent", 
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        try {
+            Path bound = bindDir.resolve(socket.getFileName());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                server.bind(UnixDomainSocketAddress.of(bound));
+                Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+                Files.move(bound, socket, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                server.close();
+                Files.deleteIfExists(bound);
+                throw ex;
+            }
+        } finally {
+            Files.deleteIfExists(bindDir);
+        }
+        UserPrincipal owner = Files.getOwner(socket);
+        
+        executor = Executors.newFixedThreadPool(threads);
+        timer = Executors.newSingleThreadScheduledExecutor();
+        lastUsed = System.nanoTime();
+        if (idleTimeout > 0){
+            long period = Math.max(10, idleTimeout / 10);
+            timer.scheduleWithFixedDelay(() -> {
+                if (System.nanoTime() - lastUsed > TimeUnit.MILLISECONDS.toNanos(idleTimeout)){
+                    System.out.println("Signing agent idle, key expired...");
+                    close();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+        
+        Thread acceptor = new Thread(() -> {
+            while (server.isOpen()){
+                try {
+                    SocketChannel ch = server.accept();
+                    executor.execute(() -> handle(ch, owner));
+                } catch (IOException | RuntimeException ex) {
+                    if (server.isOpen()){
+                        System.out.println(getClass().getName()+" accept : "+ex);
+                    }
+                }
+            }
+        }, "pdfsigner-agent");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Wait until the agent is closed or expired
+     * @throws InterruptedException 
+     */
+    public void await() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Check whether the key is still loaded
+     * @return 
+     */
+    public boolean isRunning() {
+        return context != null;
+    }
+
+    /**
+     * Drop the key, stop listening and delete the socket
+     */
+    @Override
+    public void close() {
+        context = null;
+        try {
+            if (server != null){
+                server.close();
+            }
+            Files.deleteIfExists(socket);
+        } catch (IOException ex) {
+            System.out.println(getClass().getName()+" close : "+ex);
+        }
+        if (executor != null){
+            executor.shutdownNow();
+            timer.shutdownNow();
+        }
+        stopped.countDown();
+    }
+
+    private void handle(SocketChannel ch, UserPrincipal owner) {
+        try (SocketChannel channel = ch;
+                DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+                DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel))) {
+            if (!allowed(channel, owner)){
+                respond(out, STATUS_ERROR, "Permission denied".getBytes(FileEncryption.Charset));
+                return;
+            }
+            while (true){
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException ex) {
+                    return;
+                }
+                lastUsed = System.nanoTime();
+                SignerContext ctx = context;
+                if (ctx == null){
+                    respond(out, STATUS_ERROR, "Signing agent locked".getBytes(FileEncryption.Charset));
+                    return;
+                }
+                try {
+                    switch (op){
+                        case OP_CHAIN:
+                            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+                            respond(out, STATUS_OK, cf.generateCertPath(Arrays.asList(ctx.getCertificateChain())).getEncoded("PkiPath"));
+                            break;
+                        case OP_SIGN:
+                        case OP_SIGN_WITH:
+                            String algorithm = ctx.getSignatureAlgorithm();
+                            byte[] name = null;
+                            if (op == OP_SIGN_WITH){
+                                name = readData(in);
+                                if (name == null){
+                                    respond(out, STATUS_ERROR, "Invalid algorithm length".getBytes(FileEncryption.Charset));
+                                    return;
+                                }
+                            }
+                            // whole request is read before answering, the client is still writing it
+                            byte[] data = readData(in);
+                            if (data == null){
+                                respond(out, STATUS_ERROR, "Invalid data length".getBytes(FileEncryption.Charset));
+                                return;
+                            }
+                            if (name != null){
+                                algorithm = new String(name, FileEncryption.Charset);
+                                if (!ctx.getKeyAlgorithm().isSignatureAlgorithm(algorithm)){
+                                    respond(out, STATUS_ERROR, ("Invalid signature algorithm "+algorithm).getBytes(FileEncryption.Charset));
+                                    return;
+                                }
+                            }
+                            Signature sig = Signature.getInstance(algorithm);
+                            sig.initSign(ctx.getPrivateKey());
+                            sig.update(data);
+                            respond(out, STATUS_OK, sig.sign());
+                            break;
+                        default:
+                            respond(out, STATUS_ERROR, ("Unknown operation "+op).getBytes(FileEncryption.Charset));
+                            return;
+                    }
+                } catch (GeneralSecurityException ex) {
+                    respond(out, STATUS_ERROR, String.valueOf(ex).getBytes(FileEncryption.Charset));
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println(getClass().getName()+" handle : "+ex);
+        }
+    }
+
+    /**
+     * Read length prefixed data
+     * @return null when length is invalid
+     */
+    private static byte[] readData(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > MAX_DATA){
+            return null;
+        }
+        byte[] data = new byte[len];
+        in.readFully(data);
+        return data;
+    }
+
+    private static boolean isListening(Path socket) {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Only the user owning the socket may use the key
+     */
+    private static boolean allowed(SocketChannel channel, UserPrincipal owner) throws IOException {
+        try {
+            UnixDomainPrincipal peer = channel.getOption(ExtendedSocketOptions.SO_PEERCRED);
+            return peer.user().equals(owner);
+        } catch (UnsupportedOperationException ex) {
+            // rely on socket file permission
+            return true;
+        }
+    }
+
+    private static void respond(DataOutputStream out, byte status, byte[] payload) throws IOException {
+        out.writeByte(status);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms, processed bytes and failures for every signing phase.
+ * 
+ * Counters are lock free, so one instance can be shared by all signing
+ * threads. Export as Prometheus text format or JSON snapshot.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class SigningMetrics {
+    /**
+     * Phases of signing one document
+     */
+    public enum Phase {
+        /** Parsing PDF with PDDocument.load */
+        LOAD,
+        /** DocMDP lookup and addSignature */
+        PREPARE,
+        /** Digest of ByteRange content */
+        HASH,
+        /** CMS generation and private key operation, includes hashing when not using external signing */
+        SIGN,
+        /** Incremental save to output */
+        WRITE,
+        /** Signature timestamp from TSA, only measured separately when requested asynchronously */
+        TIMESTAMP
+    }
+    
+    /**
+     * Step measured as a phase
+     * @param <T> 
+     */
+    public interface Step<T> {
+        T run() throws IOException;
+    }
+    
+    /**
+     * Define constant for histogram upper bounds in seconds
+     */
+    public static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+    
+    private static final SigningMetrics DEFAULT = new SigningMetrics();
+    
+    private final Map<Phase, PhaseMetrics> phases = new EnumMap<>(Phase.class);
+    private final LongAdder signed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Create empty metrics
+     */
+    public SigningMetrics() {
+        for (Phase p : Phase.values()){
+            phases.put(p, new PhaseMetrics());
+        }
+    }
+
+    /**
+     * Get metrics shared by the whole process
+     * @return 
+     */
+    public static SigningMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Run step and record its latency, or a failure when it throws
+     * @param <T>
+     * @param phase
+     * @param step
+     * @return result of step
+     * @throws IOException 
+     */
+    public <T> T time(Phase phase, Step<T> step) throws IOException {
+        long start = System.nanoTime();
+        try {
+            T result = step.run();
+            record(phase, System.nanoTime() - start, 0);
+            return result;
+        } catch (IOException | RuntimeException ex) {
+            failure(phase);
+            throw ex;
+        }
+    }
+
+    /**
+     * Record latency and processed bytes of phase
+     * @param phase
+     * @param nanos
+     * @param bytes 
+     */
+    public void record(Phase phase, long nanos, long bytes) {
+        PhaseMetrics m = phases.get(phase);
+        double seconds = nanos / 1e9;
+        for (int i = 0; i < BUCKETS.length; i++){
+            if (seconds <= BUCKETS[i]){
+                m.buckets[i].increment();
+                break;
+            }
+        }
+        m.count.increment();
+        m.nanos.add(nanos);
+        if (bytes > 0){
+            m.bytes.add(bytes);
+        }
+    }
+
+    /**
+     * Add processed bytes of phase without latency
+     * @param phase
+     * @param bytes 
+     */
+    public void addBytes(Phase phase, long bytes) {
+        phases.get(phase).bytes.add(bytes);
+    }
+
+    /**
+     * Record failure of phase
+     * @param phase 
+     */
+    public void failure(Phase phase) {
+        phases.get(phase).failures.increment();
+    }
+
+    /**
+     * Record finished document
+     * @param success 
+     */
+    public void document(boolean success) {
+        (success ? signed : failed).increment();
+    }
+
+    /**
+     * Export as Prometheus text format
+     * @return 
+     */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP pdfsigner_documents_total Documents processed by result.\n");
+        sb.append("# TYPE pdfsigner_documents_total counter\n");
+        sb.append("pdfsigner_documents_total{result=\"signed\"} ").append(signed.sum()).append('\n');
+        sb.append("pdfsigner_documents_total{result=\"failed\"} ").append(failed.sum()).append('\n');
+        
+        sb.append("# HELP pdfsigner_phase_seconds Latency of signing phase.\n");
+        sb.append("# TYPE pdfsigner_phase_seconds histogram\n");
+        for (Phase p : Phase.values()){
+            PhaseMetrics m = phases.get(p);
+            String label = p.name().toLowerCase(Locale.ROOT);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++){
+                cumulative += m.buckets[i].sum();
+                sb.append("pdfsigner_phase_seconds_bucket{phase=\"").append(label).append("\",le=\"")
+                        .append(BUCKETS[i]).append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append("pdfsigner_phase_seconds_bucket{phase=\"").append(label).append("\",le=\"+Inf\"} ")
+                    .append(m.count.sum()).append('\n');
+            sb.append("pdfsigner_phase_seconds_sum{phase=\"").append(label).append("\"} ")
+                    .append(m.nanos.sum() / 1e9).append('\n');
+            sb.append("pdfsigner_phase_seconds_count{phase=\"").append(label).append("\"} ")
+                    .append(m.count.sum()).append('\n');
+        }
+        
+        sb.append("# HELP pdfsigner_phase_bytes_total Bytes processed by signing phase.\n");
+        sb.append("# TYPE pdfsigner_phase_bytes_total counter\n");
+        for (Phase p : Phase.values()){
+            sb.append("pdfsigner_phase_bytes_total{phase=\"").append(p.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                    .append(phases.get(p).bytes.sum()).append('\n');
+        }
+        
+        sb.append("# HELP pdfsigner_phase_failures_total Failures by signing phase.\n");
+        sb.append("# TYPE pdfsigner_phase_failures_total counter\n");
+        for (Phase p : Phase.values()){
+            sb.append("pdfsigner_phase_failures_total{phase=\"").append(p.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                    .append(phases.get(p).failures.sum()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Export as JSON snapshot
+     * @return 
+     */
+    public String toJson() {
+        JsonObject root = new JsonObject();
+        JsonObject docs = new JsonObject();
+        docs.addProperty("signed", signed.sum());
+        docs.addProperty("failed", failed.sum());
+        root.add("documents", docs);
+        
+        JsonObject ph = new JsonObject();
+        for (Phase p : Phase.values()){
+            PhaseMetrics m = phases.get(p);
+            JsonObject o = new JsonObject();
+            long count = m.count.sum();
+            long nanos = m.nanos.sum();
+            o.addProperty("count", count);
+            o.addProperty("seconds", nanos / 1e9);
+            o.addProperty("mean_seconds", count == 0 ? 0 : nanos / 1e9 / count);
+            o.addProperty("bytes", m.bytes.sum());
+            o.addProperty("failures", m.failures.sum());
+            JsonArray buckets = new JsonArray();
+            for (int i = 0; i < BUCKETS.length; i++){
+                JsonObject b = new JsonObject();
+                b.addProperty("le", BUCKETS[i]);
+                b.addProperty("count", m.buckets[i].sum());
+                buckets.add(b);
+            }
+            o.add("buckets", buckets);
+            ph.add(p.name().toLowerCase(Locale.ROOT), o);
+        }
+        root.add("phases", ph);
+        return new GsonBuilder().setPrettyPrinting().create().toJson(root);
+    }
+
+    /**
+     * Write snapshot to file, JSON when file name ends with .json otherwise Prometheus text format
+     * @param file
+     * @throws IOException 
+     */
+    public void write(File file) throws IOException {
+        String text = file.getName().toLowerCase(Locale.ROOT).endsWith(".json") ? toJson() : toPrometheus();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static class PhaseMetrics {
+        final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder failures = new LongAdder();
+
+        PhaseMetrics() {
+            for (int i = 0; i < buckets.length; i++){
+                buckets[i] = new LongAdder();
+            }
+        }
+    }
+}
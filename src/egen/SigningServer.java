@@ -0,0 +1,346 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * Long running signing server on the loopback interface.
+ * 
+ * Keystore and signer stay loaded between requests, so callers only pay
+ * for the signing itself. Send the PDF as body of {@code POST /sign},
+ * optional query {@code reason=...}, the response body is the signed PDF.
+ * {@code GET /health} answers {@code OK} once the server is ready and
+ * {@code GET /metrics} exports {@link SigningMetrics}, add {@code format=json}
+ * for JSON.
+ * 
+ * Every port on loopback is reachable by all local users, so {@code /sign}
+ * and {@code /metrics} require header {@code Authorization: Bearer <token>}
+ * with the token set by {@link #setToken(String)}. Bodies larger than
+ * {@link #setMaxRequestSize(long)} are rejected with 413.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class SigningServer {
+    /**
+     * Define constant for environment variable holding the bearer token
+     */
+    public static final String TOKEN_ENV = "EGEN_SIGN_TOKEN";
+    
+    /**
+     * Define constant for default maximum request body in bytes
+     */
+    public static final long DEFAULT_MAX_REQUEST_SIZE = 64L * 1024 * 1024;
+    
+    private final SignerContext context;
+    private final String reason;
+    private final int threads;
+    private boolean externalSigning = false;
+    private MemoryUsageSetting memoryUsageSetting = null;
+    private VisibleSignature visibleSignature = null;
+    private byte[] token = null;
+    private long maxRequestSize = DEFAULT_MAX_REQUEST_SIZE;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Create signing server
+     * @param context prepared signer shared by all requests
+     * @param reason default reason when request has none
+     * @param threads number of concurrent requests, {@code <= 0} means number of processors
+     */
+    public SigningServer(SignerContext context, String reason, int threads) {
+        this.context = context;
+        this.reason = reason;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Use external signing for every request, see {@link PDFSignature#setExternalSigning(boolean)}
+     * @param externalSigning 
+     */
+    public void setExternalSigning(boolean externalSigning) {
+        this.externalSigning = externalSigning;
+    }
+
+    /**
+     * Set memory usage for loading PDF, see {@link MemoryPolicy#parse(String)}
+     * @param memoryUsageSetting 
+     */
+    public void setMemoryUsageSetting(MemoryUsageSetting memoryUsageSetting) {
+        this.memoryUsageSetting = memoryUsageSetting;
+    }
+
+    /**
+     * Show signature of every request as stamp, see {@link VisibleSignature}
+     * @param visibleSignature 
+     */
+    public void setVisibleSignature(VisibleSignature visibleSignature) {
+        this.visibleSignature = visibleSignature;
+    }
+
+    /**
+     * Set bearer token required by {@code /sign} and {@code /metrics}
+     * @param token 
+     */
+    public void setToken(String token) {
+        this.token = token == null || token.isEmpty() ? null : ("Bearer "+token).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Set maximum size of request body in bytes, default {@link #DEFAULT_MAX_REQUEST_SIZE}
+     * @param maxRequestSize 
+     */
+    public void setMaxRequestSize(long maxRequestSize) {
+        if (maxRequestSize <= 0){
+            throw new IllegalArgumentException("Invalid maximum request size : "+maxRequestSize);
+        }
+        this.maxRequestSize = maxRequestSize;
+    }
+
+    /**
+     * Start listening on loopback interface
+     * @param port TCP port, 0 picks a free port
+     * @throws IOException 
+     * @throws IllegalStateException when no token is set
+     */
+    public void start(int port) throws IOException {
+        if (token == null){
+            throw new IllegalStateException("Signing server requires a token");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/sign", this::handleSign);
+        server.createContext("/metrics", this::handleMetrics);
+        server.createContext("/health", (exchange) -> respond(exchange, 200, "text/plain", "OK".getBytes(FileEncryption.Charset)));
+        server.start();
+    }
+
+    /**
+     * Get listening port
+     * @return 
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop server and wait for running requests
+     * @param delay seconds to wait
+     */
+    public void stop(int delay) {
+        if (server != null){
+            server.stop(delay);
+            executor.shutdown();
+            try {
+                executor.awaitTermination(delay, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sign a generated blank document, so classes are loaded and hot code is
+     * compiled before the first request.
+     * @param iterations
+     * @throws IOException 
+     */
+    public void warmUp(int iterations) throws IOException {
+        byte[] blank;
+        try (PDDocument doc = new PDDocument(); ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+            doc.addPage(new PDPage());
+            doc.save(bos);
+            blank = bos.toByteArray();
+        }
+        for (int i = 0; i < iterations; i++){
+            ByteArrayOutputStream out = new ByteArrayOutputStream(blank.length + context.getSignatureSize() * 2 + 4096);
+            newSignature(reason).signDetached(new ByteArrayInputStream(blank), out);
+        }
+    }
+
+    private PDFSignature newSignature(String reason) {
+        PDFSignature signing = new PDFSignature(context);
+        signing.setReason(reason);
+        signing.setExternalSigning(externalSigning);
+        signing.setMemoryUsageSetting(memoryUsageSetting);
+        signing.setVisibleSignature(visibleSignature);
+        return signing;
+    }
+
+    private void handleSign(HttpExchange exchange) throws IOException {
+        try {
+            if (!authorized(exchange)){
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())){
+                respond(exchange, 405, "text/plain", "Use POST".getBytes(FileEncryption.Charset));
+                return;
+            }
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (length != null && Long.parseLong(length.trim()) > maxRequestSize){
+                respond(exchange, 413, "text/plain", ("Request larger than "+maxRequestSize+" bytes").getBytes(FileEncryption.Charset));
+                return;
+            }
+            String r = queryParam(exchange.getRequestURI().getRawQuery(), "reason");
+            ByteArrayOutputStream out = new ByteArrayOutputStream(context.getSignatureSize() * 2 + 64 * 1024);
+            try (InputStream in = new LimitedInputStream(exchange.getRequestBody(), maxRequestSize)) {
+                newSignature(r != null ? r : reason).signDetached(in, out);
+            }
+            respond(exchange, 200, "application/pdf", out.toByteArray());
+        } catch (IOException | RuntimeException ex) {
+            if (isTooLarge(ex)){
+                respond(exchange, 413, "text/plain", ("Request larger than "+maxRequestSize+" bytes").getBytes(FileEncryption.Charset));
+                return;
+            }
+            System.out.println(getClass().getName()+" sign : "+ex);
+            respond(exchange, 500, "text/plain", String.valueOf(ex).getBytes(FileEncryption.Charset));
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange)){
+            return;
+        }
+        SigningMetrics metrics = SigningMetrics.getDefault();
+        if ("json".equals(queryParam(exchange.getRequestURI().getRawQuery(), "format"))){
+            respond(exchange, 200, "application/json", metrics.toJson().getBytes(FileEncryption.Charset));
+        }else{
+            respond(exchange, 200, "text/plain; version=0.0.4", metrics.toPrometheus().getBytes(FileEncryption.Charset));
+        }
+    }
+
+    private boolean authorized(HttpExchange exchange) throws IOException {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header != null && MessageDigest.isEqual(token, header.getBytes(FileEncryption.Charset))){
+            return true;
+        }
+        exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+        respond(exchange, 401, "text/plain", "Unauthorized".getBytes(FileEncryption.Charset));
+        return false;
+    }
+
+    private static boolean isTooLarge(Throwable ex) {
+        for (Throwable t = ex; t != null; t = t.getCause()){
+            if (t instanceof RequestTooLargeException){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String queryParam(String query, String name) throws IOException {
+        if (query == null){
+            return null;
+        }
+        for (String pair : query.split("&")){
+            int eq = pair.indexOf('=');
+            if (eq > 0 && name.equals(pair.substring(0, eq))){
+                return URLDecoder.decode(pair.substring(eq + 1), FileEncryption.Charset);
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int code, String type, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static class RequestTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RequestTooLargeException(long max) {
+            super("Request larger than "+max+" bytes");
+        }
+    }
+
+    /**
+     * Fail with {@link RequestTooLargeException} once more than max bytes are read,
+     * chunked requests have no Content-Length to check up front.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long max;
+        private long count = 0;
+
+        LimitedInputStream(InputStream in, long max) {
+            super(in);
+            this.max = max;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0){
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0){
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) throws IOException {
+            count += n;
+            if (count > max){
+                throw new RequestTooLargeException(max);
+            }
+        }
+    }
+}
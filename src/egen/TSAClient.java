@@ -0,0 +1,263 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.SignerInformationStore;
+import org.bouncycastle.tsp.TSPException;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampRequestGenerator;
+import org.bouncycastle.tsp.TimeStampResponse;
+import org.bouncycastle.tsp.TimeStampToken;
+
+/**
+ * RFC 3161 Time Stamp Authority client.
+ * 
+ * Requests are sent asynchronously over one shared {@link HttpClient}, so
+ * connections to the TSA are kept alive and reused, and callers continue
+ * with other documents while a token is in flight. At most
+ * {@code maxConcurrent} requests are sent at the same time, the rest wait
+ * in a queue. Failed requests (I/O error or HTTP 5xx) are retried with
+ * exponential backoff.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class TSAClient {
+    /**
+     * Define constant for digest algorithm of the message imprint
+     */
+    public static final String digest_algorithm = "SHA-256";
+    
+    private static final ASN1ObjectIdentifier DIGEST_OID = NISTObjectIdentifiers.id_sha256;
+    private static final long RETRY_DELAY_MILLIS = 200;
+    
+    private final URI url;
+    private final HttpClient http;
+    private final Semaphore permits;
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private final SecureRandom random = new SecureRandom();
+    private int maxRetries = 2;
+    private Duration timeout = Duration.ofSeconds(30);
+
+    /**
+     * Create TSA client
+     * @param url TSA URL
+     * @param maxConcurrent maximum requests in flight, {@code <= 0} means 4
+     */
+    public TSAClient(URI url, int maxConcurrent) {
+        this.url = url;
+        this.permits = new Semaphore(maxConcurrent > 0 ? maxConcurrent : 4);
+        this.http = HttpClient.newBuilder()
+                .version("https".equalsIgnoreCase(url.getScheme()) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * Set number of retries after a failed request
+     * @param maxRetries 
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * Set timeout of one request, the connect timeout of the shared 
+     * connection stays the 30 seconds set when the client was created
+     * @param timeout 
+     */
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Get TSA URL
+     * @return 
+     */
+    public URI getUrl() {
+        return url;
+    }
+
+    /**
+     * Request timestamp token for data
+     * @param data data to be time stamped, hashed with digest_algorithm
+     * @return token validated against the request
+     */
+    public CompletableFuture<TimeStampToken> getTimeStampToken(byte[] data) {
+        TimeStampRequest request;
+        try {
+            byte[] hash = MessageDigest.getInstance(digest_algorithm).digest(data);
+            TimeStampRequestGenerator generator = new TimeStampRequestGenerator();
+            generator.setCertReq(true);
+            request = generator.generate(DIGEST_OID, hash, new BigInteger(64, random));
+        } catch (NoSuchAlgorithmException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        
+        CompletableFuture<byte[]> response = new CompletableFuture<>();
+        try {
+            byte[] body = request.getEncoded();
+            submit(() -> send(body, 0, response));
+        } catch (IOException ex) {
+            response.completeExceptionally(ex);
+        }
+        return response.thenApply((bytes) -> {
+            try {
+                TimeStampResponse tsr = new TimeStampResponse(bytes);
+                tsr.validate(request);
+                TimeStampToken token = tsr.getTimeStampToken();
+                if (token == null){
+                    throw new IOException("TSA returned no token : "+tsr.getStatusString());
+                }
+                return token;
+            } catch (IOException | TSPException ex) {
+                throw new CompletionException(ex instanceof IOException ? ex : new IOException(ex));
+            }
+        });
+    }
+
+    /**
+     * Add signature timestamp token of the first signer as unsigned 
+     * attribute id_aa_signatureTimeStampToken
+     * @param cms encoded CMS SignedData
+     * @return encoded CMS SignedData with timestamp
+     */
+    public CompletableFuture<byte[]> addTimeStamp(byte[] cms) {
+        CMSSignedData signedData;
+        SignerInformation signer;
+        try {
+            signedData = new CMSSignedData(cms);
+            signer = signedData.getSignerInfos().getSigners().iterator().next();
+        } catch (CMSException ex) {
+            return CompletableFuture.failedFuture(new IOException(ex));
+        }
+        return getTimeStampToken(signer.getSignature()).thenApply((token) -> {
+            try {
+                AttributeTable unsigned = signer.getUnsignedAttributes();
+                ASN1EncodableVector attributes = unsigned != null ? unsigned.toASN1EncodableVector() : new ASN1EncodableVector();
+                attributes.add(new Attribute(PKCSObjectIdentifiers.id_aa_signatureTimeStampToken, 
+                        new DERSet(ASN1Primitive.fromByteArray(token.getEncoded()))));
+                SignerInformation stamped = SignerInformation.replaceUnsignedAttributes(signer, new AttributeTable(attributes));
+                return CMSSignedData.replaceSigners(signedData, new SignerInformationStore(stamped)).getEncoded();
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        });
+    }
+
+    /**
+     * Wait for timestamp
+     * @param future
+     * @return result of future
+     * @throws IOException when request failed
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException){
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void submit(Runnable task) {
+        waiting.add(task);
+        drain();
+    }
+
+    /**
+     * Start waiting requests while permits are available
+     */
+    private void drain() {
+        while (!waiting.isEmpty() && permits.tryAcquire()){
+            Runnable task = waiting.poll();
+            if (task == null){
+                permits.release();
+            }else{
+                task.run();
+            }
+        }
+    }
+
+    private void send(byte[] body, int attempt, CompletableFuture<byte[]> result) {
+        // the callback releases the permit, a request failing before it is 
+        // registered must release it here or the slot is lost
+        try {
+            HttpRequest request = HttpRequest.newBuilder(url)
+                    .timeout(timeout)
+                    .header("Content-Type", "application/timestamp-query")
+                    .header("Accept", "application/timestamp-reply")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                    .build();
+            http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, ex) -> {
+                permits.release();
+                if (ex == null && response.statusCode() == 200){
+                    result.complete(response.body());
+                }else if (attempt < maxRetries && (ex != null || response.statusCode() >= 500)){
+                    long delay = RETRY_DELAY_MILLIS << attempt;
+                    CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                            .execute(() -> submit(() -> send(body, attempt + 1, result)));
+                }else{
+                    result.completeExceptionally(ex != null ? new IOException("TSA request failed", ex) : 
+                            new IOException("TSA returned HTTP "+response.statusCode()));
+                }
+                drain();
+            });
+        } catch (RuntimeException ex) {
+            permits.release();
+            result.completeExceptionally(new IOException("TSA request failed", ex));
+            drain();
+        }
+    }
+}
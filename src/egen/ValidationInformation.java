@@ -0,0 +1,275 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedData;
+
+/**
+ * Add validation data of the last signature for long term validation.
+ * 
+ * The certificates of the signature and the OCSP response, or CRL when the
+ * certificate has no responder, of every non self signed certificate are
+ * added to the Document Security Store ({@code /DSS}) in an incremental
+ * update, as defined by PAdES. Revocation data comes from a shared 
+ * {@link RevocationCache}.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class ValidationInformation {
+    private static final COSName DSS = COSName.getPDFName("DSS");
+    private static final COSName CERTS = COSName.getPDFName("Certs");
+    private static final COSName OCSPS = COSName.getPDFName("OCSPs");
+    private static final COSName CRLS = COSName.getPDFName("CRLs");
+    
+    private final RevocationCache cache;
+    private MemoryUsageSetting memoryUsageSetting = MemoryUsageSetting.setupMainMemoryOnly();
+
+    /**
+     * Create validation information writer
+     * @param cache revocation data shared by all documents
+     */
+    public ValidationInformation(RevocationCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Set memory usage for loading signed PDF files, see {@link MemoryPolicy#parse(String)}
+     * @param memoryUsageSetting 
+     */
+    public void setMemoryUsageSetting(MemoryUsageSetting memoryUsageSetting) {
+        this.memoryUsageSetting = memoryUsageSetting != null ? memoryUsageSetting : MemoryUsageSetting.setupMainMemoryOnly();
+    }
+
+    /**
+     * Add validation data of the last signature to signed PDF file in place, 
+     * the file is read from disk as needed and never held as a whole
+     * @param pdf signed PDF file
+     * @throws IOException 
+     */
+    public void addValidationInformation(File pdf) throws IOException {
+        File tmp = new File(pdf.getPath()+".ltv");
+        try {
+            try (PDDocument doc = PDDocument.load(pdf, "", null, null, memoryUsageSetting);
+                    OutputStream out = new FileOutputStream(tmp)) {
+                PDSignature signature = lastSignature(doc);
+                byte[] contents;
+                try (InputStream in = new FileInputStream(pdf)) {
+                    contents = signature.getContents(in);
+                }
+                addSignatureData(doc, contents, out);
+            }
+            Files.move(tmp.toPath(), pdf.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Add validation data of the last signature as incremental update
+     * @param document signed document
+     * @param pdf bytes of the signed document
+     * @param output complete document with the update
+     * @throws IOException 
+     */
+    public void addValidationInformation(PDDocument document, byte[] pdf, OutputStream output) throws IOException {
+        addSignatureData(document, lastSignature(document).getContents(pdf), output);
+    }
+
+    /**
+     * Add certificates and revocation data of the CMS signature contents
+     */
+    private void addSignatureData(PDDocument document, byte[] contents, OutputStream output) throws IOException {
+        List<X509Certificate> certs = certificates(contents);
+        
+        COSDictionary catalog = document.getDocumentCatalog().getCOSObject();
+        COSDictionary dss = dictionary(catalog, DSS);
+        COSArray certArray = array(dss, CERTS);
+        COSArray ocspArray = array(dss, OCSPS);
+        COSArray crlArray = array(dss, CRLS);
+        try {
+            for (X509Certificate cert : certs){
+                addStream(document, certArray, cert.getEncoded());
+                X509Certificate issuer = issuer(cert, certs);
+                if (issuer == null){
+                    continue;
+                }
+                RevocationCache.RevocationData data = cache.getRevocationData(cert, issuer);
+                if (data != null && data.getOcsp() != null){
+                    addStream(document, ocspArray, ocspBytes(data.getOcsp()));
+                }else if (data != null){
+                    addStream(document, crlArray, data.getCrl());
+                }
+            }
+        } catch (CertificateException ex) {
+            throw new IOException(ex);
+        }
+        
+        if (ocspArray.size() == 0) dss.removeItem(OCSPS);
+        if (crlArray.size() == 0) dss.removeItem(CRLS);
+        catalog.setNeedToBeUpdated(true);
+        document.saveIncremental(output);
+    }
+
+    private static PDSignature lastSignature(PDDocument document) throws IOException {
+        PDSignature signature = SigUtils.getLastRelevantSignature(document);
+        if (signature == null){
+            throw new IOException("Document has no signature");
+        }
+        return signature;
+    }
+
+    /**
+     * Certificates of the CMS signature
+     */
+    private static List<X509Certificate> certificates(byte[] contents) throws IOException {
+        try {
+            CMSSignedData signedData = new CMSSignedData(contents);
+            @SuppressWarnings("unchecked") // Store.getMatches is untyped
+            Collection<X509CertificateHolder> holders = signedData.getCertificates().getMatches(null);
+            List<X509Certificate> certs = new ArrayList<>();
+            JcaX509CertificateConverter converter = new JcaX509CertificateConverter();
+            for (X509CertificateHolder holder : holders){
+                certs.add(converter.getCertificate(holder));
+            }
+            return certs;
+        } catch (CMSException | CertificateException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Find issuer of certificate, null for self signed certificate or unknown issuer
+     */
+    private static X509Certificate issuer(X509Certificate cert, List<X509Certificate> certs) {
+        if (cert.getIssuerX500Principal().equals(cert.getSubjectX500Principal())){
+            return null;
+        }
+        for (X509Certificate c : certs){
+            if (c != cert && c.getSubjectX500Principal().equals(cert.getIssuerX500Principal())){
+                try {
+                    cert.verify(c.getPublicKey());
+                    return c;
+                } catch (Exception ex) {
+                    // same name, other key
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * DSS stores BasicOCSPResponse, not the OCSPResponse wrapper
+     */
+    private static byte[] ocspBytes(byte[] ocspResponse) throws IOException {
+        try {
+            return ((BasicOCSPResp) new OCSPResp(ocspResponse).getResponseObject()).getEncoded();
+        } catch (OCSPException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static void addStream(PDDocument document, COSArray array, byte[] data) throws IOException {
+        if (contains(array, data)){
+            return;
+        }
+        COSStream stream = document.getDocument().createCOSStream();
+        try (OutputStream os = stream.createOutputStream(COSName.FLATE_DECODE)) {
+            os.write(data);
+        }
+        array.add(stream);
+        array.setNeedToBeUpdated(true);
+    }
+
+    /**
+     * Check existing DSS of earlier signatures and certificates shared by the chain
+     */
+    private static boolean contains(COSArray array, byte[] data) throws IOException {
+        for (int i = 0; i < array.size(); i++){
+            COSBase base = array.getObject(i);
+            if (base instanceof COSStream){
+                try (InputStream in = ((COSStream) base).createInputStream()) {
+                    if (Arrays.equals(IOUtils.toByteArray(in), data)){
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static COSDictionary dictionary(COSDictionary parent, COSName name) {
+        COSBase base = parent.getDictionaryObject(name);
+        COSDictionary dict;
+        if (base instanceof COSDictionary){
+            dict = (COSDictionary) base;
+        }else{
+            dict = new COSDictionary();
+            parent.setItem(name, dict);
+        }
+        dict.setNeedToBeUpdated(true);
+        return dict;
+    }
+
+    private static COSArray array(COSDictionary parent, COSName name) {
+        COSBase base = parent.getDictionaryObject(name);
+        COSArray array;
+        if (base instanceof COSArray){
+            array = (COSArray) base;
+        }else{
+            array = new COSArray();
+            parent.setItem(name, array);
+        }
+        array.setNeedToBeUpdated(true);
+        return array;
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.ImageIO;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationWidget;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceDictionary;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.apache.pdfbox.pdmodel.interactive.form.PDSignatureField;
+import org.apache.pdfbox.util.Hex;
+
+/**
+ * Visible signature stamp with image, signer name and signing date.
+ * 
+ * The image is decoded and compressed once and the static part of the 
+ * appearance is built once per signer, every document only gets a copy of 
+ * the compressed image and the date text. Safe to share between threads.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class VisibleSignature {
+    /**
+     * Define constant for date shown in the stamp
+     */
+    public static final String date_format = "yyyy-MM-dd HH:mm:ss xxx";
+    /**
+     * Define constant for default stamp image
+     */
+    public static final String default_image = "res/seahorse-key.png";
+    
+    private static final COSName IMAGE = COSName.getPDFName("Img");
+    private static final COSName FONT = COSName.getPDFName("F1");
+    private static final PDType1Font font = PDType1Font.HELVETICA;
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern(date_format, Locale.ROOT);
+    
+    private final int page;
+    private final PDRectangle rectangle;
+    private final File imageFile;
+    private final Map<String, Layout> layouts = new ConcurrentHashMap<>();
+    private volatile Image image;
+
+    /**
+     * Create visible signature
+     * @param page zero based page index, negative counts from the last page
+     * @param x left of the stamp in PDF points
+     * @param y bottom of the stamp in PDF points
+     * @param width
+     * @param height
+     * @param image PNG or JPEG shown left of the text, null for text only
+     */
+    public VisibleSignature(int page, float x, float y, float width, float height, File image) {
+        if (width <= 0 || height <= 0){
+            throw new IllegalArgumentException("Stamp width and height must be positive");
+        }
+        this.page = page;
+        this.rectangle = new PDRectangle(x, y, width, height);
+        this.imageFile = image;
+    }
+
+    /**
+     * Parse layout {@code <page>,<x>,<y>,<width>,<height>}, page starts from 1
+     * and -1 is the last page
+     * @param layout
+     * @param image
+     * @return VisibleSignature
+     */
+    public static VisibleSignature parse(String layout, File image) {
+        String[] v = layout.split(",");
+        if (v.length != 5){
+            throw new IllegalArgumentException("Visible signature expects <page>,<x>,<y>,<width>,<height> : "+layout);
+        }
+        int p = Integer.parseInt(v[0].trim());
+        return new VisibleSignature(p > 0 ? p - 1 : p, Float.parseFloat(v[1].trim()), Float.parseFloat(v[2].trim()),
+                Float.parseFloat(v[3].trim()), Float.parseFloat(v[4].trim()), image);
+    }
+
+    /**
+     * Get stamp position
+     * @return 
+     */
+    public PDRectangle getRectangle() {
+        return new PDRectangle(rectangle.getLowerLeftX(), rectangle.getLowerLeftY(), 
+                rectangle.getWidth(), rectangle.getHeight());
+    }
+
+    /**
+     * Format signing date as shown in the stamp
+     * @param date
+     * @return 
+     */
+    public static String formatDate(Calendar date) {
+        ZonedDateTime time = date instanceof GregorianCalendar ? ((GregorianCalendar) date).toZonedDateTime() :
+                ZonedDateTime.ofInstant(date.toInstant(), date.getTimeZone().toZoneId());
+        return formatter.format(time);
+    }
+
+    /**
+     * Show widget of signature added to the document with the stamp, to be 
+     * called after {@link PDDocument#addSignature} and before saving
+     * @param document
+     * @param signature
+     * @param signer certificate of the signer
+     * @throws IOException 
+     */
+    void apply(PDDocument document, PDSignature signature, X509Certificate signer) throws IOException {
+        PDSignatureField field = null;
+        for (PDSignatureField f : document.getSignatureFields()){
+            if (f.getSignature() != null && f.getSignature().getCOSObject() == signature.getCOSObject()){
+                field = f;
+            }
+        }
+        if (field == null){
+            throw new IOException("Signature field not found");
+        }
+        
+        int count = document.getNumberOfPages();
+        int index = page < 0 ? count + page : page;
+        PDPage target = document.getPage(Math.min(Math.max(index, 0), count - 1));
+        
+        PDAnnotationWidget widget = field.getWidgets().get(0);
+        widget.setRectangle(getRectangle());
+        widget.setPage(target);
+        PDAppearanceDictionary appearance = new PDAppearanceDictionary();
+        appearance.setNormalAppearance(appearance(document, signer, signature.getSignDate()));
+        widget.setAppearance(appearance);
+        
+        // direct /Annots, an existing indirect array would not be saved incrementally
+        List<PDAnnotation> annotations = new ArrayList<>(target.getAnnotations());
+        annotations.add(widget);
+        target.setAnnotations(annotations);
+        target.getCOSObject().setNeedToBeUpdated(true);
+    }
+
+    /**
+     * Build appearance of the stamp in the document from cached parts
+     */
+    private PDAppearanceStream appearance(PDDocument document, X509Certificate signer, Calendar date) throws IOException {
+        Image img = image();
+        CertificateHolder holder = CertificateHolder.of(signer);
+        Layout layout = layouts.computeIfAbsent(holder.getFingerprint(), (key) -> new Layout(holder.getName(), img));
+        
+        COSStream stream = document.getDocument().createCOSStream();
+        PDAppearanceStream ap = new PDAppearanceStream(stream);
+        ap.setBBox(new PDRectangle(rectangle.getWidth(), rectangle.getHeight()));
+        
+        COSDictionary fontDict = new COSDictionary();
+        fontDict.setItem(COSName.TYPE, COSName.FONT);
+        fontDict.setItem(COSName.SUBTYPE, COSName.TYPE1);
+        fontDict.setItem(COSName.BASE_FONT, COSName.getPDFName(font.getName()));
+        fontDict.setItem(COSName.ENCODING, COSName.WIN_ANSI_ENCODING);
+        COSDictionary fonts = new COSDictionary();
+        fonts.setItem(FONT, fontDict);
+        COSDictionary resources = new COSDictionary();
+        resources.setItem(COSName.FONT, fonts);
+        if (img != null){
+            COSDictionary xobjects = new COSDictionary();
+            xobjects.setItem(IMAGE, img.copy(document));
+            resources.setItem(COSName.XOBJECT, xobjects);
+        }
+        stream.setItem(COSName.RESOURCES, resources);
+        
+        try (OutputStream os = stream.createOutputStream()) {
+            os.write(layout.content);
+            os.write(text(formatDate(date)));
+            os.write(" Tj\nET\nQ\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        return ap;
+    }
+
+    /**
+     * Decode and compress image once
+     */
+    private Image image() throws IOException {
+        if (imageFile == null){
+            return null;
+        }
+        Image img = image;
+        if (img == null){
+            synchronized (this) {
+                img = image;
+                if (img == null){
+                    BufferedImage bi = ImageIO.read(imageFile);
+                    if (bi == null){
+                        throw new IOException("Unsupported image "+imageFile);
+                    }
+                    try (PDDocument scratch = new PDDocument()) {
+                        PDImageXObject xobject = LosslessFactory.createFromImage(scratch, bi);
+                        img = new Image(xobject.getCOSObject());
+                    }
+                    image = img;
+                }
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Hex string of text in the font encoding, no escaping needed
+     */
+    private static byte[] text(String s) throws IOException {
+        return ("<"+Hex.getString(font.encode(s))+">").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Replace characters missing in the font encoding, e.g. Cyrillic or CJK 
+     * names, with {@code ?} instead of failing the whole stamp
+     */
+    static String encodable(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        s.codePoints().forEach((cp) -> {
+            String c = new String(Character.toChars(cp));
+            try {
+                font.encode(c);
+                sb.append(c);
+            } catch (IOException | IllegalArgumentException ex) {
+                sb.append('?');
+            }
+        });
+        return sb.toString();
+    }
+
+    private static String number(float f) {
+        return String.format(Locale.ROOT, "%.2f", f);
+    }
+
+    /**
+     * Content of the stamp up to the date text
+     */
+    private final class Layout {
+        final byte[] content;
+
+        Layout(String name, Image img) {
+            try {
+                float w = rectangle.getWidth();
+                float h = rectangle.getHeight();
+                StringBuilder sb = new StringBuilder("q\n");
+                float textX = h * 0.1f;
+                if (img != null){
+                    // keep aspect ratio, at most a third of the width
+                    float scale = Math.min(h * 0.9f / img.height, w / 3 / img.width);
+                    float iw = img.width * scale;
+                    float ih = img.height * scale;
+                    float iy = (h - ih) / 2;
+                    sb.append("q ").append(number(iw)).append(" 0 0 ").append(number(ih)).append(' ')
+                            .append(number(iy)).append(' ').append(number(iy)).append(" cm /")
+                            .append(IMAGE.getName()).append(" Do Q\n");
+                    textX = iy * 2 + iw;
+                }
+                String first = encodable("Digitally signed by "+(name != null ? name : ""));
+                String second = formatDate(Calendar.getInstance());
+                float available = w - textX - h * 0.05f;
+                float widest = Math.max(font.getStringWidth(first), font.getStringWidth(second)) / 1000;
+                float size = Math.max(1, Math.min(h / 3, available / widest));
+                sb.append("BT\n/").append(FONT.getName()).append(' ').append(number(size)).append(" Tf\n")
+                        .append(number(textX)).append(' ').append(number(h / 2 + size * 0.25f)).append(" Td\n");
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                bos.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+                bos.write(text(first));
+                bos.write((" Tj\n0 "+number(-size * 1.2f)+" Td\n").getBytes(StandardCharsets.US_ASCII));
+                content = bos.toByteArray();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    /**
+     * Compressed image with its soft mask, copied to each document without 
+     * decoding
+     */
+    private static final class Image {
+        final COSDictionary dict;
+        final byte[] data;
+        final Image mask;
+        final int width;
+        final int height;
+
+        Image(COSStream stream) throws IOException {
+            dict = new COSDictionary();
+            for (Map.Entry<COSName, COSBase> e : stream.entrySet()){
+                if (!COSName.LENGTH.equals(e.getKey()) && !COSName.SMASK.equals(e.getKey())){
+                    dict.setItem(e.getKey(), copy(e.getValue()));
+                }
+            }
+            try (InputStream in = stream.createRawInputStream()) {
+                data = IOUtils.toByteArray(in);
+            }
+            COSBase smask = stream.getDictionaryObject(COSName.SMASK);
+            mask = smask instanceof COSStream ? new Image((COSStream) smask) : null;
+            width = stream.getInt(COSName.WIDTH);
+            height = stream.getInt(COSName.HEIGHT);
+        }
+
+        COSStream copy(PDDocument document) throws IOException {
+            COSStream stream = document.getDocument().createCOSStream();
+            for (Map.Entry<COSName, COSBase> e : dict.entrySet()){
+                stream.setItem(e.getKey(), copy(e.getValue()));
+            }
+            if (mask != null){
+                stream.setItem(COSName.SMASK, mask.copy(document));
+            }
+            try (OutputStream os = stream.createRawOutputStream()) {
+                os.write(data);
+            }
+            return stream;
+        }
+
+        /**
+         * Copy direct containers, documents must not share mutable objects
+         */
+        private static COSBase copy(COSBase base) {
+            if (base instanceof COSDictionary){
+                COSDictionary copy = new COSDictionary();
+                for (Map.Entry<COSName, COSBase> e : ((COSDictionary) base).entrySet()){
+                    copy.setItem(e.getKey(), copy(e.getValue()));
+                }
+                return copy;
+            }
+            if (base instanceof COSArray){
+                COSArray copy = new COSArray();
+                for (COSBase b : (COSArray) base){
+                    copy.add(copy(b));
+                }
+                return copy;
+            }
+            return base;
+        }
+    }
+}
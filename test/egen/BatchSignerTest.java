@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class BatchSignerTest {
+    private static final String outDir = OUT_DIR+"batch/";
+    private static final String alias = "batch";
+    private static KeyStore ks;
+    
+    public BatchSignerTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        new File(outDir).mkdirs();
+        ks = keystore("batch/batch.store", alias, "Batch Signer");
+        for(int i=0;i<6;i++){
+            Files.copy(Paths.get(IN_DIR+"sign_me.pdf"), Paths.get(outDir+"doc_"+i+".pdf"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.write(Paths.get(outDir+"doc_broken.pdf"), "not a pdf".getBytes(FileEncryption.Charset));
+        Files.write(Paths.get(outDir+"doc_0_signed.pdf"), "previous output".getBytes(FileEncryption.Charset));
+    }
+
+    /**
+     * Test of signDirectory method, of class BatchSigner.
+     * @throws java.lang.InterruptedException
+     */
+    @Test
+    public void testSignDirectory() throws InterruptedException {
+        System.out.println("signDirectory");
+        BatchSigner bs = new BatchSigner(ks, alias, PASSWORD, "Batch signed", 3);
+        List<BatchSigner.Result> results = bs.signDirectory(new File(outDir));
+        
+        // sorted by name, previous output skipped
+        assertEquals(7, results.size());
+        for(int i=0;i<6;i++){
+            BatchSigner.Result r = results.get(i);
+            assertEquals("doc_"+i+".pdf", r.getInput().getName());
+            assertTrue(r.isSuccess());
+            assertTrue(r.getOutput().length() > r.getInput().length());
+        }
+        
+        // failure is reported without stopping the batch
+        BatchSigner.Result broken = results.get(6);
+        assertEquals("doc_broken.pdf", broken.getInput().getName());
+        assertFalse(broken.isSuccess());
+        assertNotNull(broken.getError());
+        assertFalse(broken.getOutput().exists());
+    }
+
+    /**
+     * Test of signDirectory method with virtual threads, of class BatchSigner.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignDirectoryVirtualThreads() throws Exception {
+        System.out.println("signDirectory virtual threads");
+        BatchSigner bs = new BatchSigner(ks, alias, PASSWORD, "Batch signed", 2);
+        bs.setVirtualThreads(true);
+        bs.setMaxInFlight(3);
+        List<BatchSigner.Result> results = bs.signDirectory(new File(outDir));
+        
+        assertEquals(7, results.size());
+        for(int i=0;i<6;i++){
+            BatchSigner.Result r = results.get(i);
+            assertEquals("doc_"+i+".pdf", r.getInput().getName());
+            assertTrue(r.isSuccess());
+            assertTrue(PDFSignatureTest.verify(r.getOutput(), (X509Certificate) ks.getCertificate(alias)));
+        }
+        assertFalse(results.get(6).isSuccess());
+        assertFalse(results.get(6).getOutput().exists());
+    }
+}
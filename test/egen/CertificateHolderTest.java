@@ -31,6 +31,11 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -68,15 +73,12 @@ public class CertificateHolderTest {
     }
 
     /**
-     * Test of getInstance method, of class CertificateHolder.
+     * Test of of method, of class CertificateHolder.
      */
     @Test
-    public void testGetInstance() {
-        System.out.println("Testing getInstance...");
-        ch = CertificateHolder.getInstance();
-        assertTrue(ch instanceof CertificateHolder);
-        
-        ch.setCert(cert);
+    public void testOf() {
+        System.out.println("Testing of...");
+        ch = CertificateHolder.of(cert);
         assertTrue(cert != null);
         assertEquals("Digital Signature",ch.getName());
 //        assertEquals(Digsig.appName+" v"+Digsig.appVersion,ch.getUnit());
@@ -84,15 +86,41 @@ public class CertificateHolderTest {
         assertEquals("Jakarta Selatan",ch.getLocation());
         assertEquals("DKI Jakarta",ch.getState());
         assertEquals("ID",ch.getCountry());
+        assertEquals(64,ch.getFingerprint().length());
+    }
+    
+    /**
+     * Test of cached instance shared by threads, of class CertificateHolder.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCache() throws Exception {
+        System.out.println("Testing cache...");
+        KeyStore other = KeyStore.getInstance("PKCS12");
+        other.load(new FileInputStream(res),password.toCharArray());
+        X509Certificate copy = (X509Certificate) other.getCertificate(alias);
+        assertSame(CertificateHolder.of(cert), CertificateHolder.of(copy));
+        
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<CertificateHolder>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++){
+                futures.add(pool.submit(() -> CertificateHolder.of(copy)));
+            }
+            for (Future<CertificateHolder> f : futures){
+                assertSame(CertificateHolder.of(cert), f.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
     }
     
     /**
-     * Test of setCert
+     * Test of of method without certificate
      */
     @Test (expected = NullPointerException.class)
-    public void testSetCert(){
-        ch = CertificateHolder.getInstance();
+    public void testOfNull(){
         X509Certificate c = null;
-        ch.setCert(c);
+        CertificateHolder.of(c);
     }
 }
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class DigestAlgorithmTest {
+    private static final String alias = "digest";
+    private static KeyStore ks;
+    
+    public DigestAlgorithmTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        new File(OUT_DIR).mkdirs();
+        ks = keystore("digest.store", alias, "Digest Algorithm");
+    }
+
+    /**
+     * Test of parse method, of class DigestAlgorithm.
+     */
+    @Test
+    public void testParse() {
+        System.out.println("parse");
+        assertEquals(DigestAlgorithm.SHA256, DigestAlgorithm.parse("SHA-256"));
+        assertEquals(DigestAlgorithm.SHA512, DigestAlgorithm.parse("sha512"));
+        assertEquals(DigestAlgorithm.SHA3_256, DigestAlgorithm.parse("SHA3-256"));
+        for (DigestAlgorithm da : DigestAlgorithm.values()){
+            assertEquals(da, DigestAlgorithm.parse(da.getName()));
+        }
+        try {
+            DigestAlgorithm.parse("MD5");
+            fail("MD5 accepted");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test of fastest method, of class DigestAlgorithm.
+     */
+    @Test
+    public void testFastest() {
+        System.out.println("fastest");
+        DigestAlgorithm fastest = DigestAlgorithm.fastest(DigestAlgorithm.SHA256, DigestAlgorithm.SHA512);
+        assertTrue(fastest == DigestAlgorithm.SHA256 || fastest == DigestAlgorithm.SHA512);
+        assertEquals(DigestAlgorithm.SHA384, DigestAlgorithm.fastest(DigestAlgorithm.SHA384));
+    }
+
+    /**
+     * Test of signing with every digest, CMS and DocMDP must agree.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSign() throws Exception {
+        System.out.println("sign with digest");
+        SignerContext context = context(ks, alias);
+        assertEquals(DigestAlgorithm.SHA256, context.getDigestAlgorithm());
+        for (DigestAlgorithm da : DigestAlgorithm.values()){
+            SignerContext digestContext = context.withDigestAlgorithm(da);
+            assertEquals(da, digestContext.getDigestAlgorithm());
+            
+            File out = new File(OUT_DIR+"sign_me_"+da.name().toLowerCase()+".pdf");
+            PDFSignature signing = new PDFSignature(digestContext);
+            signing.setExternalSigning(true);
+            signing.signFile(new File(IN_DIR+"sign_me.pdf"), out);
+            
+            SignatureVerifier.Report report = new SignatureVerifier(1).verify(out);
+            assertTrue(da.getName(), report.getSignatures().get(0).isDigestValid());
+            assertTrue(da.getName(), report.getSignatures().get(0).isSignatureValid());
+            
+            byte[] pdf = Files.readAllBytes(out.toPath());
+            try (PDDocument doc = PDDocument.load(pdf)) {
+                PDSignature sig = doc.getLastSignatureDictionary();
+                COSArray reference = (COSArray) sig.getCOSObject().getDictionaryObject(COSName.getPDFName("Reference"));
+                COSDictionary referenceDict = (COSDictionary) reference.getObject(0);
+                assertEquals(da.getShortName(), referenceDict.getNameAsString("DigestMethod"));
+                
+                CMSSignedData signedData = new CMSSignedData(sig.getContents(pdf));
+                SignerInformation signer = signedData.getSignerInfos().getSigners().iterator().next();
+                byte[] hash = MessageDigest.getInstance(signer.getDigestAlgOID()).digest(sig.getSignedContent(pdf));
+                assertTrue(da.getName(), Arrays.equals(da.createMessageDigest().digest(sig.getSignedContent(pdf)), hash));
+            }
+        }
+        
+        // Ed25519 keeps SHA-512
+        KeyStore ed = keystore("digest_ed25519.store", alias, "Digest Ed25519", KeyAlgorithm.ED25519);
+        SignerContext edContext = context(ed, alias);
+        assertEquals(DigestAlgorithm.SHA512, edContext.withDigestAlgorithm(DigestAlgorithm.SHA256).getDigestAlgorithm());
+    }
+}
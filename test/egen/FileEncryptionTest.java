@@ -87,8 +87,7 @@ public class FileEncryptionTest {
     public void testLoadKeystore() throws KeyStoreException, NoSuchAlgorithmException, UnrecoverableKeyException {
         System.out.println("loadKeystore");
         KeyStore ks = fe.loadKeystore(new File(keystorePath), password);
-        ch = CertificateHolder.getInstance();
-        ch.setCert((X509Certificate) ks.getCertificate(alias));
+        ch = CertificateHolder.of((X509Certificate) ks.getCertificate(alias));
         assertEquals("PKCS#8",((PrivateKey) ks.getKey(alias, password.toCharArray())).getFormat());
         assertEquals("EJSStudio",ch.getOrganization());
         
@@ -115,10 +114,9 @@ public class FileEncryptionTest {
         // Add Cert
         FileEncryption.addCert(new File(outDir+"ekojs.store"), new File(certFile), alias, password);
         another = fe.loadKeystore(new File(outDir+"ekojs.store"), password);
-        ch = CertificateHolder.getInstance();
-        ch.setCert((X509Certificate) another.getCertificate(alias));
+        ch = CertificateHolder.of((X509Certificate) another.getCertificate(alias));
         assertEquals("Digital Signature",ch.getName());
-        ch.setCert((X509Certificate) another.getCertificate("ekojs"));
+        ch = CertificateHolder.of((X509Certificate) another.getCertificate("ekojs"));
         assertEquals("Eko Junaidi Salam",ch.getName());
     }
 
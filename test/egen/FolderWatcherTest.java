@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class FolderWatcherTest {
+    private static final String outDir = OUT_DIR+"watch/";
+    private static final String alias = "watch";
+    private static SignerContext context;
+    
+    public FolderWatcherTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        // start from empty folder
+        if (Files.exists(Paths.get(outDir))){
+            Files.walk(Paths.get(outDir)).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+        new File(outDir).mkdirs();
+        context = context("watch.store", alias, "Folder Watcher");
+    }
+
+    /**
+     * Test of run method, of class FolderWatcher.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testRun() throws Exception {
+        System.out.println("watch");
+        Path dir = Paths.get(outDir);
+        Files.copy(Paths.get(IN_DIR+"sign_me.pdf"), dir.resolve("before.pdf"), StandardCopyOption.REPLACE_EXISTING);
+        
+        FolderWatcher fw = new FolderWatcher(dir.toFile(), context, "Watched", 2);
+        fw.setSettleMillis(200);
+        Thread t = new Thread(() -> {
+            try {
+                fw.run();
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        t.start();
+        
+        // write to temp name and rename, like uploaders do
+        Files.copy(Paths.get(IN_DIR+"sign_me.pdf"), dir.resolve("after.tmp"), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(dir.resolve("after.tmp"), dir.resolve("after.pdf"), StandardCopyOption.ATOMIC_MOVE);
+        Files.write(dir.resolve("broken.pdf"), "not a pdf".getBytes(FileEncryption.Charset));
+        
+        long deadline = System.currentTimeMillis() + 20000;
+        while (System.currentTimeMillis() < deadline && 
+                !(Files.exists(dir.resolve("processed/before.pdf")) && Files.exists(dir.resolve("processed/after.pdf"))
+                && Files.exists(dir.resolve("failed/broken.pdf")))){
+            Thread.sleep(100);
+        }
+        fw.close();
+        t.join(5000);
+        
+        assertTrue(PDFSignatureTest.verify(dir.resolve("before_signed.pdf").toFile(), context.getCertificate()));
+        assertTrue(PDFSignatureTest.verify(dir.resolve("after_signed.pdf").toFile(), context.getCertificate()));
+        assertTrue(Files.exists(dir.resolve("failed/broken.pdf")));
+        assertFalse(Files.exists(dir.resolve("broken_signed.pdf")));
+        assertFalse(Files.exists(dir.resolve("before_signed_signed.pdf")));
+    }
+}
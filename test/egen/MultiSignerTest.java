@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class MultiSignerTest {
+    private static final String[] aliases = {"author", "reviewer", "approver"};
+    private static KeyStore ks;
+    
+    public MultiSignerTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        new File(OUT_DIR).mkdirs();
+        // one keystore with an alias per signer
+        ks = KeyStore.getInstance("PKCS12");
+        ks.load(null, null);
+        for (String alias : aliases){
+            KeyStore one = keystore("multi_"+alias+".store", alias, "Signer "+alias);
+            ks.setKeyEntry(alias, one.getKey(alias, PASSWORD.toCharArray()), PASSWORD.toCharArray(), 
+                    one.getCertificateChain(alias));
+        }
+    }
+
+    /**
+     * Test of signFile method, of class MultiSigner.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignFile() throws Exception {
+        System.out.println("signFile");
+        MultiSigner ms = new MultiSigner();
+        for (String alias : aliases){
+            ms.add(context(ks, alias), "Approved by "+alias);
+        }
+        ms.setMetrics(new SigningMetrics());
+        File out = new File(OUT_DIR+"sign_me_multi.pdf");
+        ms.signFile(new File(IN_DIR+"sign_me.pdf"), out);
+        
+        byte[] pdf = Files.readAllBytes(out.toPath());
+        try (PDDocument doc = PDDocument.load(pdf)) {
+            List<PDSignature> signatures = SigUtils.getSignaturesByOffset(doc);
+            assertEquals(3, signatures.size());
+            // certified once by the first signer
+            assertEquals(2, SigUtils.getMDPPermission(doc));
+            for (int i = 0; i < aliases.length; i++){
+                PDSignature sig = signatures.get(i);
+                assertEquals("Approved by "+aliases[i], sig.getReason());
+                assertEquals(i == 0, sig.getCOSObject().getDictionaryObject(COSName.getPDFName("Reference")) != null);
+            }
+            int[] last = signatures.get(2).getByteRange();
+            assertEquals(pdf.length, last[2] + last[3]);
+        }
+        
+        SignatureVerifier.Report report = new SignatureVerifier(1).verify(out);
+        assertEquals(3, report.getSignatures().size());
+        for (SignatureVerifier.SignatureReport sig : report.getSignatures()){
+            assertTrue(sig.isDigestValid());
+            assertTrue(sig.isSignatureValid());
+        }
+        assertTrue(report.getSignatures().get(2).isCoversWholeDocument());
+        assertTrue(PDFSignatureTest.verify(out, (X509Certificate) ks.getCertificate("approver")));
+    }
+
+    /**
+     * Test of signDetached method with external signing, of class MultiSigner.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignDetachedExternal() throws Exception {
+        System.out.println("signDetached external");
+        MultiSigner ms = new MultiSigner()
+                .add(context(ks, aliases[0]), "First")
+                .add(context(ks, aliases[1]), "Second");
+        ms.setExternalSigning(true);
+        ms.setMetrics(new SigningMetrics());
+        byte[] pdf = Files.readAllBytes(new File(IN_DIR+"sign_me.pdf").toPath());
+        byte[] signed = ms.signDetached(pdf);
+        
+        try (PDDocument doc = PDDocument.load(signed)) {
+            assertEquals(2, doc.getSignatureDictionaries().size());
+        }
+        // first revision is unchanged
+        assertArrayEquals(pdf, Arrays.copyOf(signed, pdf.length));
+        SignatureVerifier.Report report = new SignatureVerifier(1).verify(writeTemp(signed));
+        assertTrue(report.getSignatures().stream().allMatch(SignatureVerifier.SignatureReport::isSignatureValid));
+    }
+
+    private static File writeTemp(byte[] pdf) throws Exception {
+        File f = new File(OUT_DIR+"sign_me_multi_external.pdf");
+        Files.write(f.toPath(), pdf);
+        return f;
+    }
+}
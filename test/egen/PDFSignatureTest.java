@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.security.cert.X509Certificate;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class PDFSignatureTest {
+    private static final String alias = "pdfsig";
+    private static SignerContext context;
+    
+    public PDFSignatureTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        new File(OUT_DIR).mkdirs();
+        context = context("pdfsig.store", alias, "PDF Signature");
+    }
+    
+    /**
+     * Verify the last signature of signed PDF against its ByteRange
+     * @param pdf signed PDF
+     * @param cert expected signer
+     * @return true when signature is valid
+     */
+    static boolean verify(File pdf, X509Certificate cert) throws Exception {
+        return verify(Files.readAllBytes(pdf.toPath()), cert);
+    }
+    
+    /**
+     * Verify the last signature of signed PDF bytes against its ByteRange
+     * @param bytes signed PDF
+     * @param cert expected signer
+     * @return true when signature is valid
+     */
+    static boolean verify(byte[] bytes, X509Certificate cert) throws Exception {
+        try (PDDocument doc = PDDocument.load(bytes)) {
+            PDSignature sig = SigUtils.getLastRelevantSignature(doc);
+            byte[] content = sig.getSignedContent(bytes);
+            CMSSignedData signedData = new CMSSignedData(new CMSProcessableByteArray(content), sig.getContents(bytes));
+            SignerInformation signer = signedData.getSignerInfos().getSigners().iterator().next();
+            return signer.verify(new JcaSimpleSignerInfoVerifierBuilder().build(cert));
+        }
+    }
+
+    /**
+     * Test of signFile method using SignatureInterface.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignFile() throws Exception {
+        System.out.println("signFile");
+        File out = new File(OUT_DIR+"sign_me_internal.pdf");
+        PDFSignature signing = new PDFSignature(context);
+        signing.signFile(new File(IN_DIR+"sign_me.pdf"), out);
+        assertTrue(verify(out, context.getCertificate()));
+    }
+
+    /**
+     * Test of signFile method using external signing.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testExternalSigning() throws Exception {
+        System.out.println("signFile external");
+        File out = new File(OUT_DIR+"sign_me_external.pdf");
+        PDFSignature signing = new PDFSignature(context);
+        signing.setExternalSigning(true);
+        signing.signFile(new File(IN_DIR+"sign_me.pdf"), out);
+        assertTrue(verify(out, context.getCertificate()));
+    }
+    
+    /**
+     * Test of signFile method with broken input.
+     * @throws java.lang.Exception
+     */
+    @Test (expected = IOException.class)
+    public void testSignFileBroken() throws Exception {
+        PDFSignature signing = new PDFSignature(context);
+        signing.signFile(new File(IN_DIR+"digsig.store"), new File(OUT_DIR+"broken_signed.pdf"));
+    }
+    
+    /**
+     * Test of signFile method with bounded memory policy.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testMemoryPolicy() throws Exception {
+        System.out.println("signFile memory policy");
+        File out = new File(OUT_DIR+"sign_me_temp.pdf");
+        PDFSignature signing = new PDFSignature(context);
+        signing.setMemoryUsageSetting(MemoryPolicy.parse("temp:"+OUT_DIR));
+        signing.signFile(new File(IN_DIR+"sign_me.pdf"), out);
+        assertTrue(verify(out, context.getCertificate()));
+        
+        assertTrue(MemoryPolicy.parse("main").useMainMemory());
+        assertEquals(16L * 1024 * 1024, MemoryPolicy.parse("mixed:16").getMaxMainMemoryBytes());
+        try {
+            MemoryPolicy.parse("mixed");
+            fail("mixed without size");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("mixed"));
+        }
+    }
+    
+    /**
+     * Test of phase metrics recorded by signFile.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        System.out.println("signFile metrics");
+        SigningMetrics metrics = new SigningMetrics();
+        PDFSignature signing = new PDFSignature(context);
+        signing.setMetrics(metrics);
+        signing.signFile(new File(IN_DIR+"sign_me.pdf"), new File(OUT_DIR+"sign_me_metrics.pdf"));
+        signing.setExternalSigning(true);
+        signing.signFile(new File(IN_DIR+"sign_me.pdf"), new File(OUT_DIR+"sign_me_metrics.pdf"));
+        try {
+            signing.signFile(new File(IN_DIR+"digsig.store"), new File(OUT_DIR+"broken_signed.pdf"));
+        } catch (IOException ex) {
+            // counted as failure
+        }
+        
+        String text = metrics.toPrometheus();
+        assertTrue(text.contains("pdfsigner_documents_total{result=\"signed\"} 2"));
+        assertTrue(text.contains("pdfsigner_documents_total{result=\"failed\"} 1"));
+        assertTrue(text.contains("pdfsigner_phase_seconds_count{phase=\"load\"} 2"));
+        assertTrue(text.contains("pdfsigner_phase_seconds_count{phase=\"sign\"} 2"));
+        assertTrue(text.contains("pdfsigner_phase_seconds_count{phase=\"hash\"} 1"));
+        assertTrue(text.contains("pdfsigner_phase_failures_total{phase=\"load\"} 1"));
+        assertTrue(metrics.toJson().contains("\"write\""));
+        
+        // stream and deferred signing count documents and loaded bytes too
+        File in = new File(IN_DIR+"sign_me.pdf");
+        metrics = new SigningMetrics();
+        signing.setMetrics(metrics);
+        try (InputStream is = new FileInputStream(in)) {
+            signing.signDetached(is, new ByteArrayOutputStream());
+        }
+        signing.prepareDeferred(in, new File(OUT_DIR+"sign_me_metrics.pdf"));
+        text = metrics.toPrometheus();
+        assertTrue(text.contains("pdfsigner_documents_total{result=\"signed\"} 2"));
+        assertTrue(text.contains("pdfsigner_phase_bytes_total{phase=\"load\"} "+(2 * in.length())));
+    }
+
+    /**
+     * Test of prepareDeferred method and PreparedSignature.complete.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testPrepareDeferred() throws Exception {
+        System.out.println("prepareDeferred");
+        File out = new File(OUT_DIR+"sign_me_deferred.pdf");
+        SignerContext keyless = SignerContext.prepareOnly(context.getCertificateChain(), context.getSignatureSize());
+        PreparedSignature prepared = new PDFSignature(keyless).prepareDeferred(new File(IN_DIR+"sign_me.pdf"), out);
+        assertEquals(out.length(), prepared.getByteRange()[2] + prepared.getByteRange()[3]);
+        assertTrue(prepared.getCapacity() >= context.getSignatureSize());
+        
+        // digest queued as JSON and signed by the key holder
+        PreparedSignature queued = PreparedSignature.fromJson(prepared.toJson());
+        assertArrayEquals(prepared.getDigest(), queued.getDigest());
+        try {
+            keyless.signDigest(queued.getDigest());
+            fail("Keyless context can not sign");
+        } catch (IOException ex) {
+            // expected
+        }
+        queued.complete(context.signDigest(queued.getDigest()));
+        assertTrue(verify(out, context.getCertificate()));
+        
+        // signature of another prepared document is not written
+        byte[] other = queued.getDigest();
+        other[0] ^= 1;
+        try {
+            queued.complete(context.signDigest(other));
+            fail("Signature of another digest");
+        } catch (IOException ex) {
+            assertTrue(verify(out, context.getCertificate()));
+        }
+        
+        try {
+            queued.complete(new byte[queued.getCapacity() + 1]);
+            fail("Signature too big");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test of setSignExecutor, only the digest signature runs on the executor.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignExecutor() throws Exception {
+        System.out.println("sign executor");
+        byte[] pdf = Files.readAllBytes(new File(IN_DIR+"sign_me.pdf").toPath());
+        AtomicInteger tasks = new AtomicInteger();
+        PDFSignature signing = new PDFSignature(context);
+        signing.setSignExecutor((task) -> {
+            tasks.incrementAndGet();
+            task.run();
+        });
+        
+        byte[] signed = signing.signDetached(pdf);
+        assertEquals(1, tasks.get());
+        assertTrue(verify(signed, context.getCertificate()));
+    }
+
+    /**
+     * Test of signDetached methods for documents in memory.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignInMemory() throws Exception {
+        System.out.println("sign in memory");
+        byte[] pdf = Files.readAllBytes(new File(IN_DIR+"sign_me.pdf").toPath());
+        PDFSignature signing = new PDFSignature(context);
+        
+        byte[] signed = signing.signDetached(pdf);
+        assertTrue(signed.length > pdf.length);
+        assertTrue(signed.length <= signing.getSignedSizeEstimate(pdf.length));
+        assertTrue(verify(signed, context.getCertificate()));
+        
+        assertTrue(verify(signing.signDetached(new ByteArrayInputStream(pdf)), context.getCertificate()));
+        
+        // direct input with other data around the document
+        ByteBuffer input = ByteBuffer.allocateDirect(pdf.length + 20);
+        input.put(new byte[10]).put(pdf).put(new byte[10]);
+        input.position(10).limit(10 + pdf.length);
+        ByteBuffer pooled = ByteBuffer.allocateDirect(signing.getSignedSizeEstimate(pdf.length));
+        ByteBuffer output = signing.signDetached(input, pooled);
+        assertSame(pooled, output);
+        assertEquals(10, input.position());
+        byte[] b = new byte[output.remaining()];
+        output.get(b);
+        assertTrue(verify(b, context.getCertificate()));
+        
+        // too small buffer is replaced
+        output = signing.signDetached(ByteBuffer.wrap(pdf), ByteBuffer.allocate(16));
+        assertEquals(signed.length, output.remaining());
+        
+        // output is written after data already in the buffer
+        ByteBuffer header = ByteBuffer.allocate(64);
+        header.put("header".getBytes(FileEncryption.Charset));
+        output = signing.signDetached(ByteBuffer.wrap(pdf), header);
+        assertEquals(6, output.position());
+        assertEquals(signed.length, output.remaining());
+        assertEquals("header", new String(output.array(), 0, 6, FileEncryption.Charset));
+        b = new byte[output.remaining()];
+        output.get(b);
+        assertTrue(verify(b, context.getCertificate()));
+    }
+
+    /**
+     * Test of signFile method writing the signed file with transferTo.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignFileZeroCopy() throws Exception {
+        System.out.println("signFile zero copy");
+        File in = new File(IN_DIR+"sign_me.pdf");
+        File out = new File(OUT_DIR+"sign_me_zero_copy.pdf");
+        PDFSignature signing = new PDFSignature(context);
+        signing.setZeroCopy(true);
+        signing.signFile(in, out);
+        assertTrue(verify(out, context.getCertificate()));
+        
+        byte[] pdf = Files.readAllBytes(in.toPath());
+        byte[] signed = Files.readAllBytes(out.toPath());
+        assertTrue(signed.length > pdf.length);
+        assertArrayEquals(pdf, Arrays.copyOf(signed, pdf.length));
+        
+        // same layout as external signing through PDFBox output
+        File external = new File(OUT_DIR+"sign_me_external_copy.pdf");
+        signing.setZeroCopy(false);
+        signing.setExternalSigning(true);
+        signing.signFile(in, external);
+        assertEquals(external.length(), out.length());
+        
+        // signing in place would truncate the input first
+        try {
+            signing.signFileZeroCopy(out, new File(OUT_DIR+"../results/sign_me_zero_copy.pdf"));
+            fail("same file accepted");
+        } catch (IOException ex) {
+            assertTrue(verify(out, context.getCertificate()));
+        }
+    }
+}
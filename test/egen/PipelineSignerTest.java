@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class PipelineSignerTest {
+    private static final String outDir = OUT_DIR+"pipeline/";
+    private static final String alias = "pipeline";
+    private static KeyStore ks;
+    
+    public PipelineSignerTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        new File(outDir).mkdirs();
+        ks = keystore("pipeline/pipeline.store", alias, "Pipeline Signer");
+        for(int i=0;i<10;i++){
+            Files.copy(Paths.get(IN_DIR+"sign_me.pdf"), Paths.get(outDir+"doc_"+i+".pdf"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.write(Paths.get(outDir+"doc_broken.pdf"), "not a pdf".getBytes(FileEncryption.Charset));
+    }
+
+    /**
+     * Test of signDirectory method, of class PipelineSigner.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignDirectory() throws Exception {
+        System.out.println("signDirectory");
+        SignerContext context = context(ks, alias);
+        SigningMetrics metrics = new SigningMetrics();
+        PipelineSigner ps = new PipelineSigner(context, "Pipeline signed");
+        ps.setThreads(1, 2, 2, 1);
+        ps.setQueueCapacity(1);
+        ps.setMetrics(metrics);
+        List<BatchSigner.Result> results = ps.signDirectory(new File(outDir));
+        
+        assertEquals(11, results.size());
+        for(int i=0;i<10;i++){
+            BatchSigner.Result r = results.get(i);
+            assertEquals("doc_"+i+".pdf", r.getInput().getName());
+            assertTrue(r.isSuccess());
+            assertTrue(PDFSignatureTest.verify(r.getOutput(), context.getCertificate()));
+        }
+        
+        BatchSigner.Result broken = results.get(10);
+        assertEquals("doc_broken.pdf", broken.getInput().getName());
+        assertFalse(broken.isSuccess());
+        assertFalse(broken.getOutput().exists());
+        assertTrue(metrics.toPrometheus().contains("pdfsigner_documents_total{result=\"signed\"} 10"));
+        assertTrue(metrics.toPrometheus().contains("pdfsigner_documents_total{result=\"failed\"} 1"));
+    }
+
+    /**
+     * Test of signFiles method with temp file memory policy, of class PipelineSigner.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignFilesTempMemory() throws Exception {
+        System.out.println("signFiles temp memory");
+        SignerContext context = context(ks, alias);
+        PipelineSigner ps = new PipelineSigner(context, "Pipeline signed");
+        ps.setMemoryUsageSetting(MemoryPolicy.parse("temp"));
+        ps.setMetrics(new SigningMetrics());
+        List<BatchSigner.Result> results = ps.signFiles(Arrays.asList(new File(outDir+"doc_0.pdf"), new File(outDir+"doc_1.pdf")));
+        for (BatchSigner.Result r : results){
+            assertTrue(r.isSuccess());
+            assertTrue(PDFSignatureTest.verify(r.getOutput(), context.getCertificate()));
+        }
+    }
+
+    /**
+     * Test of signFiles method when interrupted, of class PipelineSigner.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignFilesInterrupted() throws Exception {
+        System.out.println("signFiles interrupted");
+        SignerContext context = context(ks, alias);
+        PipelineSigner ps = new PipelineSigner(context, "Pipeline signed");
+        ps.setThreads(1, 1, 1, 1);
+        ps.setQueueCapacity(1);
+        ps.setMetrics(new SigningMetrics());
+        List<File> files = new ArrayList<>();
+        for(int i=0;i<10;i++){
+            files.add(new File(outDir+"doc_"+i+".pdf"));
+        }
+        Thread.currentThread().interrupt();
+        try {
+            ps.signFiles(files);
+            fail("interrupt not reported");
+        } catch (InterruptedException ex) {
+            assertFalse(Thread.currentThread().isInterrupted());
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class RevocationCacheTest {
+    private static final String cacheDir = OUT_DIR+"revocation/";
+    private static RevocationStub ca;
+    private static X509Certificate ocspCert;
+    private static X509Certificate crlCert;
+    
+    public RevocationCacheTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        ca = new RevocationStub();
+        KeyPair pair = RevocationStub.keyPair();
+        ocspCert = ca.issue("OCSP Signer", pair, true);
+        crlCert = ca.issue("CRL Signer", pair, false);
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+        ca.stop();
+    }
+    
+    @Before
+    public void setUp() {
+        ca.setValidityMillis(60 * 60 * 1000L);
+        ca.setDelayMillis(0);
+        ca.setOcspFailing(false);
+        File dir = new File(cacheDir);
+        dir.mkdirs();
+        for (File f : dir.listFiles()){
+            f.delete();
+        }
+    }
+
+    /**
+     * Test of getOcspResponse method with concurrent callers, of class RevocationCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSingleFlight() throws Exception {
+        System.out.println("single flight");
+        RevocationCache cache = new RevocationCache(null);
+        ca.setDelayMillis(300);
+        int before = ca.getOcspRequests();
+        
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++){
+                futures.add(pool.submit((Callable<byte[]>) () -> cache.getOcspResponse(ocspCert, ca.getCaCertificate())));
+            }
+            byte[] first = futures.get(0).get();
+            for (Future<byte[]> f : futures){
+                assertArrayEquals(first, f.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, cache.getFetchCount());
+        assertEquals(before + 1, ca.getOcspRequests());
+    }
+
+    /**
+     * Test of entry expiry at nextUpdate, of class RevocationCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testExpiry() throws Exception {
+        System.out.println("expiry");
+        RevocationCache cache = new RevocationCache(null);
+        cache.getOcspResponse(ocspCert, ca.getCaCertificate());
+        cache.setClock(Clock.offset(Clock.systemUTC(), Duration.ofMinutes(59)));
+        cache.getOcspResponse(ocspCert, ca.getCaCertificate());
+        assertEquals(1, cache.getFetchCount());
+        
+        cache.setClock(Clock.offset(Clock.systemUTC(), Duration.ofMinutes(61)));
+        ca.setValidityMillis(2 * 60 * 60 * 1000L);
+        cache.getOcspResponse(ocspCert, ca.getCaCertificate());
+        cache.getOcspResponse(ocspCert, ca.getCaCertificate());
+        assertEquals(2, cache.getFetchCount());
+    }
+
+    /**
+     * Test of disk cache shared by new instances, of class RevocationCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testDiskCache() throws Exception {
+        System.out.println("disk cache");
+        byte[] fetched = new RevocationCache(new File(cacheDir)).getOcspResponse(ocspCert, ca.getCaCertificate());
+        
+        RevocationCache cache = new RevocationCache(new File(cacheDir));
+        assertArrayEquals(fetched, cache.getOcspResponse(ocspCert, ca.getCaCertificate()));
+        assertEquals(0, cache.getFetchCount());
+    }
+
+    /**
+     * Test of getRevocationData method without OCSP url, of class RevocationCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCrlFallback() throws Exception {
+        System.out.println("crl fallback");
+        RevocationCache cache = new RevocationCache(null);
+        RevocationCache.RevocationData data = cache.getRevocationData(crlCert, ca.getCaCertificate());
+        assertNotNull(data);
+        assertNull(data.getOcsp());
+        assertNotNull(data.getCrl());
+        
+        data = cache.getRevocationData(ocspCert, ca.getCaCertificate());
+        assertNotNull(data.getOcsp());
+        assertNull(data.getCrl());
+    }
+
+    /**
+     * Test of getRevocationData method with failing OCSP responder, of class RevocationCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testOcspFailureFallback() throws Exception {
+        System.out.println("ocsp failure fallback");
+        RevocationCache cache = new RevocationCache(null);
+        ca.setOcspFailing(true);
+        RevocationCache.RevocationData data = cache.getRevocationData(ocspCert, ca.getCaCertificate());
+        assertNull(data.getOcsp());
+        assertNotNull(data.getCrl());
+    }
+
+    /**
+     * Test of revoked certificate, the revoked status is rejected by OCSP and
+     * CRL and is not cached, of class RevocationCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testRevoked() throws Exception {
+        System.out.println("revoked");
+        X509Certificate revoked = ca.issue("Revoked Signer", RevocationStub.keyPair(), true);
+        ca.revoke(revoked);
+        RevocationCache cache = new RevocationCache(new File(cacheDir));
+        for (int i = 0; i < 2; i++){
+            try {
+                cache.getRevocationData(revoked, ca.getCaCertificate());
+                fail("revoked certificate accepted");
+            } catch (RevocationCache.RevokedException ex) {
+                // expected
+            }
+        }
+        // revoked status is not cached
+        assertEquals(2, cache.getFetchCount());
+        assertEquals(0, new File(cacheDir).list((d, name) -> name.startsWith("ocsp-")).length);
+        
+        try {
+            cache.getCrl(revoked, ca.getCaCertificate());
+            fail("revoked certificate accepted");
+        } catch (RevocationCache.RevokedException ex) {
+            // expected
+        }
+        
+        // not revoked certificate still passes with the same CRL
+        assertNotNull(cache.getCrl(crlCert, ca.getCaCertificate()));
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.pdfbox.io.IOUtils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.jcajce.JcaBasicOCSPRespBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+/**
+ * In-process CA with OCSP responder and CRL server on the loopback interface 
+ * for tests. Certificates issued by the CA point to both.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class RevocationStub {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final KeyPair caPair;
+    private final X509Certificate caCert;
+    private final AtomicInteger serial = new AtomicInteger(1);
+    private final AtomicInteger ocspRequests = new AtomicInteger();
+    private final AtomicInteger crlRequests = new AtomicInteger();
+    private volatile long validityMillis = 60 * 60 * 1000L;
+    private volatile long delayMillis = 0;
+    private volatile boolean ocspFailing = false;
+    private final Set<BigInteger> revoked = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Start CA stub with a new self signed CA certificate
+     * @throws Exception 
+     */
+    public RevocationStub() throws Exception {
+        caPair = keyPair();
+        X500Name dn = new X500Name("CN=Test CA");
+        Date now = new Date();
+        JcaX509v3CertificateBuilder cb = new JcaX509v3CertificateBuilder(dn, BigInteger.ONE, 
+                new Date(now.getTime() - 86400000L), new Date(now.getTime() + 86400000L), dn, caPair.getPublic());
+        cb.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+        cb.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+        caCert = new JcaX509CertificateConverter().getCertificate(cb.build(signer()));
+        
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newFixedThreadPool(8);
+        server.setExecutor(executor);
+        server.createContext("/ocsp", (exchange) -> {
+            try {
+                byte[] body;
+                try (InputStream in = exchange.getRequestBody()) {
+                    body = IOUtils.toByteArray(in);
+                }
+                ocspRequests.incrementAndGet();
+                delay();
+                if (ocspFailing){
+                    throw new IOException("OCSP responder down");
+                }
+                respond(exchange, ocsp(new OCSPReq(body)));
+            } catch (Exception ex) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/crl", (exchange) -> {
+            try {
+                crlRequests.incrementAndGet();
+                delay();
+                respond(exchange, crl());
+            } catch (Exception ex) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Issue signing certificate
+     * @param cn common name
+     * @param pair key of the certificate
+     * @param ocsp add OCSP responder url, otherwise only CRL url
+     * @return 
+     * @throws Exception 
+     */
+    public X509Certificate issue(String cn, KeyPair pair, boolean ocsp) throws Exception {
+        Date now = new Date();
+        JcaX509v3CertificateBuilder cb = new JcaX509v3CertificateBuilder(caCert, 
+                BigInteger.valueOf(serial.incrementAndGet()), new Date(now.getTime() - 86400000L), 
+                new Date(now.getTime() + 86400000L), new X500Name("CN="+cn), pair.getPublic());
+        cb.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature | KeyUsage.nonRepudiation));
+        if (ocsp){
+            cb.addExtension(Extension.authorityInfoAccess, false, new AuthorityInformationAccess(
+                    AccessDescription.id_ad_ocsp, new GeneralName(GeneralName.uniformResourceIdentifier, getUrl()+"/ocsp")));
+        }
+        cb.addExtension(Extension.cRLDistributionPoints, false, new CRLDistPoint(new DistributionPoint[]{
+            new DistributionPoint(new DistributionPointName(new GeneralNames(
+                    new GeneralName(GeneralName.uniformResourceIdentifier, getUrl()+"/crl"))), null, null)}));
+        return new JcaX509CertificateConverter().getCertificate(cb.build(signer()));
+    }
+
+    /**
+     * Generate RSA key pair
+     * @return
+     * @throws Exception 
+     */
+    public static KeyPair keyPair() throws Exception {
+        KeyPairGenerator keygen = KeyPairGenerator.getInstance("RSA");
+        keygen.initialize(2048);
+        return keygen.generateKeyPair();
+    }
+
+    /**
+     * Get CA certificate
+     * @return 
+     */
+    public X509Certificate getCaCertificate() {
+        return caCert;
+    }
+
+    /**
+     * Get base url of the stub
+     * @return 
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:"+server.getAddress().getPort();
+    }
+
+    /**
+     * Set time from thisUpdate to nextUpdate of the responses
+     * @param validityMillis 
+     */
+    public void setValidityMillis(long validityMillis) {
+        this.validityMillis = validityMillis;
+    }
+
+    /**
+     * Delay every response
+     * @param delayMillis 
+     */
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Answer every OCSP request with HTTP 500
+     * @param ocspFailing 
+     */
+    public void setOcspFailing(boolean ocspFailing) {
+        this.ocspFailing = ocspFailing;
+    }
+
+    /**
+     * Report certificate as revoked by OCSP and CRL
+     * @param cert 
+     */
+    public void revoke(X509Certificate cert) {
+        revoked.add(cert.getSerialNumber());
+    }
+
+    /**
+     * Get number of received OCSP requests
+     * @return 
+     */
+    public int getOcspRequests() {
+        return ocspRequests.get();
+    }
+
+    /**
+     * Get number of received CRL requests
+     * @return 
+     */
+    public int getCrlRequests() {
+        return crlRequests.get();
+    }
+
+    /**
+     * Stop CA stub
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private byte[] ocsp(OCSPReq request) throws Exception {
+        BasicOCSPRespBuilder builder = new JcaBasicOCSPRespBuilder(caPair.getPublic(), 
+                new JcaDigestCalculatorProviderBuilder().build().get(
+                        CertificateID.HASH_SHA1));
+        Date now = new Date();
+        for (Req req : request.getRequestList()){
+            CertificateStatus status = revoked.contains(req.getCertID().getSerialNumber()) 
+                    ? new RevokedStatus(now, CRLReason.keyCompromise) : CertificateStatus.GOOD;
+            builder.addResponse(req.getCertID(), status, now, 
+                    new Date(now.getTime() + validityMillis), null);
+        }
+        return new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, 
+                builder.build(signer(), new JcaX509CertificateHolder[]{new JcaX509CertificateHolder(caCert)}, now))
+                .getEncoded();
+    }
+
+    private byte[] crl() throws Exception {
+        Date now = new Date();
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(new JcaX509CertificateHolder(caCert).getSubject(), now);
+        builder.setNextUpdate(new Date(now.getTime() + validityMillis));
+        for (BigInteger serial : revoked){
+            builder.addCRLEntry(serial, now, CRLReason.keyCompromise);
+        }
+        return builder.build(signer()).getEncoded();
+    }
+
+    private ContentSigner signer() throws Exception {
+        return new JcaContentSignerBuilder("SHA256WithRSA").build(caPair.getPrivate());
+    }
+
+    private void delay() throws InterruptedException {
+        if (delayMillis > 0){
+            Thread.sleep(delayMillis);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, byte[] response) throws IOException {
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class SignatureVerifierTest {
+    private static final String outDir = OUT_DIR+"verify/";
+    private static final String alias = "verify";
+    
+    public SignatureVerifierTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        File dir = new File(outDir);
+        dir.mkdirs();
+        for (File f : dir.listFiles()){
+            f.delete();
+        }
+        SignerContext context = context("verify.store", alias, "Signature Verifier");
+        
+        PDFSignature signing = new PDFSignature(context);
+        signing.setReason("Verified");
+        signing.signFile(new File(IN_DIR+"sign_me.pdf"), new File(outDir+"a_signed.pdf"));
+        
+        // same length change inside the signed ByteRange
+        byte[] pdf = Files.readAllBytes(Paths.get(outDir+"a_signed.pdf"));
+        String s = new String(pdf, StandardCharsets.ISO_8859_1).replace("(Verified)", "(Verifiex)");
+        Files.write(Paths.get(outDir+"b_tampered.pdf"), s.getBytes(StandardCharsets.ISO_8859_1));
+        
+        Files.copy(Paths.get(IN_DIR+"sign_me.pdf"), Paths.get(outDir+"c_unsigned.pdf"), StandardCopyOption.REPLACE_EXISTING);
+        Files.write(Paths.get(outDir+"d_broken.pdf"), "not a pdf".getBytes(FileEncryption.Charset));
+    }
+
+    /**
+     * Test of verifyDirectory method, of class SignatureVerifier.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testVerifyDirectory() throws Exception {
+        System.out.println("verifyDirectory");
+        List<SignatureVerifier.Report> reports = new SignatureVerifier(2).verifyDirectory(new File(outDir));
+        assertEquals(4, reports.size());
+        
+        SignatureVerifier.Report signed = reports.get(0);
+        assertTrue(signed.isValid());
+        assertEquals(1, signed.getSignatures().size());
+        SignatureVerifier.SignatureReport sig = signed.getSignatures().get(0);
+        assertTrue(sig.isByteRangeValid());
+        assertTrue(sig.isCoversWholeDocument());
+        assertTrue(sig.isDigestValid());
+        assertTrue(sig.isSignatureValid());
+        assertTrue(sig.isCertificateValid());
+        assertNull(sig.getTimestampValid());
+        assertTrue(sig.getSigner().contains("CN=Signature Verifier"));
+        
+        SignatureVerifier.Report tampered = reports.get(1);
+        assertFalse(tampered.isValid());
+        assertFalse(tampered.getSignatures().get(0).isDigestValid());
+        assertFalse(tampered.getSignatures().get(0).isSignatureValid());
+        
+        SignatureVerifier.Report unsigned = reports.get(2);
+        assertFalse(unsigned.isValid());
+        assertTrue(unsigned.getSignatures().isEmpty());
+        
+        SignatureVerifier.Report broken = reports.get(3);
+        assertFalse(broken.isValid());
+        assertNotNull(broken.getError());
+        
+        String json = SignatureVerifier.toJson(reports);
+        assertTrue(json.contains("\"digestValid\": true"));
+        assertTrue(json.contains("c_unsigned.pdf"));
+    }
+
+    /**
+     * Test of digest method over small mapped windows, of class SignatureVerifier.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testDigestWindow() throws Exception {
+        System.out.println("digest window");
+        byte[] pdf = Files.readAllBytes(Paths.get(outDir+"a_signed.pdf"));
+        try (PDDocument doc = PDDocument.load(pdf);
+                FileChannel ch = FileChannel.open(Paths.get(outDir+"a_signed.pdf"), StandardOpenOption.READ)) {
+            PDSignature sig = SigUtils.getLastRelevantSignature(doc);
+            byte[] expected = MessageDigest.getInstance("SHA-256").digest(sig.getSignedContent(pdf));
+            // window not aligned with the ranges
+            assertArrayEquals(expected, SignatureVerifier.digest(ch, sig.getByteRange(), "2.16.840.1.101.3.4.2.1", 1000));
+            assertArrayEquals(expected, SignatureVerifier.digest(ch, sig.getByteRange(), "2.16.840.1.101.3.4.2.1", SignatureVerifier.WINDOW_SIZE));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class SignerContextTest {
+    private static final String alias = "context";
+    private static SignerContext context;
+    
+    public SignerContextTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        new File(OUT_DIR).mkdirs();
+        context = context("context.store", alias, "Signer Context");
+    }
+
+    /**
+     * Test of create method, of class SignerContext.
+     */
+    @Test
+    public void testCreate() {
+        System.out.println("create");
+        assertEquals("Signer Context", context.getAuthorName());
+        assertEquals("Jakarta Selatan", context.getLocation());
+        assertEquals(1, context.getCertificateChain().length);
+    }
+
+    /**
+     * Test of sign method from many threads sharing one context.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testConcurrentSign() throws Exception {
+        System.out.println("sign concurrently");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<byte[]>> cms = new ArrayList<>();
+        for(int i=0;i<16;i++){
+            final byte[] content = ("document "+i).getBytes(FileEncryption.Charset);
+            cms.add(pool.submit(() -> context.sign(new ByteArrayInputStream(content))));
+        }
+        pool.shutdown();
+        
+        for(int i=0;i<16;i++){
+            byte[] content = ("document "+i).getBytes(FileEncryption.Charset);
+            CMSSignedData signedData = new CMSSignedData(new CMSProcessableByteArray(content), cms.get(i).get());
+            SignerInformation signer = signedData.getSignerInfos().getSigners().iterator().next();
+            assertTrue(signer.verify(new JcaSimpleSignerInfoVerifierBuilder().build(context.getCertificate())));
+        }
+    }
+    
+    /**
+     * Test of getSignatureSize method, of class SignerContext.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGetSignatureSize() throws Exception {
+        System.out.println("getSignatureSize");
+        int size = context.getSignatureSize();
+        byte[] cms = context.signDigest(new byte[32]);
+        assertTrue(cms.length <= size);
+        assertTrue(size - cms.length <= SignerContext.SIGNATURE_SIZE_MARGIN);
+        assertEquals(size, context.getSignatureSize());
+    }
+    
+    /**
+     * Test of signing with EC and Ed25519 keys, algorithm from certificate key.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testKeyAlgorithm() throws Exception {
+        System.out.println("key algorithm");
+        assertEquals(KeyAlgorithm.RSA, context.getKeyAlgorithm());
+        
+        for (KeyAlgorithm ka : new KeyAlgorithm[]{KeyAlgorithm.EC, KeyAlgorithm.ED25519}){
+            String name = ka.name().toLowerCase();
+            KeyStore ks = keystore("context_"+name+".store", alias, "Signer "+ka, ka);
+            SignerContext ctx = context(ks, alias);
+            assertEquals(ka, ctx.getKeyAlgorithm());
+            assertEquals(ka.getDigestAlgorithm(), ctx.getDigestAlgorithm());
+            assertTrue(ctx.getSignatureSize() < context.getSignatureSize());
+            
+            File out = new File(OUT_DIR+"sign_me_"+name+".pdf");
+            new PDFSignature(ctx).signFile(new File(IN_DIR+"sign_me.pdf"), out);
+            SignatureVerifier.Report report = new SignatureVerifier(1).verify(out);
+            assertEquals(1, report.getSignatures().size());
+            assertTrue(report.getSignatures().get(0).isDigestValid());
+            assertTrue(report.getSignatures().get(0).isSignatureValid());
+        }
+    }
+    
+    /**
+     * Test of with methods, options make new contexts.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testWith() throws Exception {
+        System.out.println("with digest and TSA");
+        SignerContext sha512 = context.withDigestAlgorithm(DigestAlgorithm.SHA512);
+        assertEquals(DigestAlgorithm.SHA256, context.getDigestAlgorithm());
+        assertEquals(DigestAlgorithm.SHA512, sha512.getDigestAlgorithm());
+        assertSame(context.getPrivateKey(), sha512.getPrivateKey());
+        
+        // prepare only context keeps the given size, it can not measure
+        SignerContext keyless = SignerContext.prepareOnly(context.getCertificateChain(), 4096);
+        assertEquals(4096, keyless.withDigestAlgorithm(DigestAlgorithm.SHA384).getSignatureSize());
+        assertEquals(4096, keyless.withTSAClient(null).getSignatureSize());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.stream.Stream;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class SigningAgentTest {
+    private static final String outDir = OUT_DIR+"agent/";
+    private static final String alias = "agent";
+    private static SignerContext context;
+    private static SigningAgent agent;
+    
+    public SigningAgentTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        new File(outDir).mkdirs();
+        context = context("agent/agent.store", alias, "Signing Agent");
+        agent = new SigningAgent(Paths.get(outDir+"agent.sock"), context, 2);
+        agent.start();
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+        agent.close();
+    }
+
+    /**
+     * Test of signing with key held by the agent, of class AgentClient.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignWithAgent() throws Exception {
+        System.out.println("agent sign");
+        SignerContext remote = new AgentClient(agent.getSocket()).createContext();
+        assertNull(remote.getPrivateKey());
+        assertEquals(context.getCertificate(), remote.getCertificate());
+        assertEquals("Signing Agent", remote.getAuthorName());
+        
+        File out = new File(outDir+"sign_me_agent.pdf");
+        PDFSignature signing = new PDFSignature(remote);
+        signing.setExternalSigning(true);
+        signing.signFile(new File(IN_DIR+"sign_me.pdf"), out);
+        assertTrue(PDFSignatureTest.verify(out, context.getCertificate()));
+    }
+
+    /**
+     * Test of signing with digest chosen by the client, of class AgentClient.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignWithAgentDigest() throws Exception {
+        System.out.println("agent sign with digest");
+        SignerContext remote = new AgentClient(agent.getSocket()).createContext().withDigestAlgorithm(DigestAlgorithm.SHA384);
+        
+        File out = new File(outDir+"sign_me_agent_sha384.pdf");
+        new PDFSignature(remote).signFile(new File(IN_DIR+"sign_me.pdf"), out);
+        assertTrue(PDFSignatureTest.verify(out, context.getCertificate()));
+        
+        // only signature algorithms of the agent key
+        try {
+            new AgentClient(agent.getSocket()).sign(new byte[32], "NONEwithRSA");
+            fail("Raw signature allowed");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("Invalid signature algorithm"));
+        }
+    }
+
+    /**
+     * Test of socket permission, of class SigningAgent.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSocketPermission() throws Exception {
+        System.out.println("agent socket permission");
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(agent.getSocket())));
+        // bound in a private directory which is removed after the move
+        try (Stream<Path> files = Files.list(agent.getSocket().getParent())) {
+            assertFalse(files.anyMatch((p) -> p.getFileName().toString().startsWith(".agent")));
+        }
+        
+        // second agent on the same socket is refused
+        SigningAgent other = new SigningAgent(agent.getSocket(), context, 1);
+        try {
+            other.start();
+            fail("Socket already in use");
+        } catch (IOException ex) {
+            assertTrue(agent.isRunning());
+        }
+        
+        // regular file on the socket path is kept
+        Path file = Paths.get(outDir+"not_a_socket.pdf");
+        Files.write(file, new byte[]{1});
+        try {
+            new SigningAgent(file, context, 1).start();
+            fail("Path is not a socket");
+        } catch (IOException ex) {
+            assertTrue(Files.isRegularFile(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Test of setIdleTimeout method, of class SigningAgent.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testIdleTimeout() throws Exception {
+        System.out.println("agent idle timeout");
+        Path socket = Paths.get(outDir+"idle.sock");
+        SigningAgent idle = new SigningAgent(socket, context, 1);
+        idle.setIdleTimeout(200);
+        idle.start();
+        new AgentClient(socket).getCertificateChain();
+        idle.await();
+        
+        assertFalse(idle.isRunning());
+        assertFalse(Files.exists(socket));
+        try {
+            new AgentClient(socket).sign(new byte[32], context.getSignatureAlgorithm());
+            fail("Key expired");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.apache.pdfbox.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class SigningServerTest {
+    private static final String alias = "server";
+    private static final String token = "s3cr3t-token";
+    private static SignerContext context;
+    private static SigningServer server;
+    
+    public SigningServerTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        new File(OUT_DIR).mkdirs();
+        context = context("server.store", alias, "Signing Server");
+        server = new SigningServer(context, "Server signed", 2);
+        server.setToken(token);
+        server.setMaxRequestSize(new File(IN_DIR+"sign_me.pdf").length() * 4);
+        server.warmUp(1);
+        server.start(0);
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+        server.stop(0);
+    }
+
+    private static HttpURLConnection post(String path, String auth) throws Exception {
+        HttpURLConnection con = (HttpURLConnection) new URL("http://127.0.0.1:"+server.getPort()+path).openConnection();
+        con.setRequestMethod("POST");
+        con.setDoOutput(true);
+        if (auth != null){
+            con.setRequestProperty("Authorization", "Bearer "+auth);
+        }
+        return con;
+    }
+
+    /**
+     * Test of sign request, of class SigningServer.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSign() throws Exception {
+        System.out.println("server sign");
+        HttpURLConnection con = post("/sign?reason=Via%20server", token);
+        try (OutputStream os = con.getOutputStream()) {
+            Files.copy(Paths.get(IN_DIR+"sign_me.pdf"), os);
+        }
+        assertEquals(200, con.getResponseCode());
+        ByteArrayOutputStream signed = new ByteArrayOutputStream();
+        try (InputStream is = con.getInputStream()) {
+            IOUtils.copy(is, signed);
+        }
+        assertTrue(PDFSignatureTest.verify(signed.toByteArray(), context.getCertificate()));
+    }
+
+    /**
+     * Test of sign request with broken PDF.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignBroken() throws Exception {
+        System.out.println("server sign broken");
+        HttpURLConnection con = post("/sign", token);
+        try (OutputStream os = con.getOutputStream()) {
+            os.write("not a pdf".getBytes(FileEncryption.Charset));
+        }
+        assertEquals(500, con.getResponseCode());
+    }
+
+    /**
+     * Test of sign request without or with wrong token.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignUnauthorized() throws Exception {
+        System.out.println("server sign unauthorized");
+        for (String auth : new String[]{null, "wrong"}){
+            HttpURLConnection con = post("/sign", auth);
+            try (OutputStream os = con.getOutputStream()) {
+                Files.copy(Paths.get(IN_DIR+"sign_me.pdf"), os);
+            }
+            assertEquals(401, con.getResponseCode());
+        }
+    }
+
+    /**
+     * Test of sign request larger than maximum request size.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignTooLarge() throws Exception {
+        System.out.println("server sign too large");
+        byte[] pdf = Files.readAllBytes(Paths.get(IN_DIR+"sign_me.pdf"));
+        HttpURLConnection con = post("/sign", token);
+        try (OutputStream os = con.getOutputStream()) {
+            for (int i = 0; i < 5; i++){
+                os.write(pdf);
+            }
+        }
+        assertEquals(413, con.getResponseCode());
+        
+        con = post("/sign", token);
+        con.setChunkedStreamingMode(4096);
+        try (OutputStream os = con.getOutputStream()) {
+            for (int i = 0; i < 5; i++){
+                os.write(pdf);
+            }
+        }
+        assertEquals(413, con.getResponseCode());
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bouncycastle.tsp.TimeStampToken;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class TSAClientTest {
+    private static final String outDir = OUT_DIR+"tsa/";
+    private static final String alias = "tsa";
+    private static KeyStore ks;
+    private static TSAStub tsa;
+    
+    public TSAClientTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        File dir = new File(outDir);
+        dir.mkdirs();
+        for (File f : dir.listFiles()){
+            f.delete();
+        }
+        ks = keystore("tsa.store", alias, "Time Stamped");
+        tsa = new TSAStub();
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+        tsa.stop();
+    }
+
+    /**
+     * Test of signature timestamp added by SignerContext.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSignWithTimeStamp() throws Exception {
+        System.out.println("sign with timestamp");
+        SignerContext plain = context(ks, alias);
+        SignerContext context = plain.withTSAClient(new TSAClient(tsa.getUrl(), 2));
+        assertNull(plain.getTSAClient());
+        assertTrue(context.getSignatureSize() > plain.getSignatureSize() + SignerContext.TIMESTAMP_SIZE_MARGIN);
+        
+        File out = new File(outDir+"sign_me_tsa.pdf");
+        new PDFSignature(context).signFile(new File(IN_DIR+"sign_me.pdf"), out);
+        SignatureVerifier.Report report = new SignatureVerifier(1).verify(out);
+        assertTrue(report.isValid());
+        assertTrue(report.getSignatures().get(0).getTimestampValid());
+    }
+
+    /**
+     * Test of asynchronous timestamp in PipelineSigner.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testPipelineWithTimeStamp() throws Exception {
+        System.out.println("pipeline with timestamp");
+        File dir = new File(outDir+"pipeline/");
+        dir.mkdirs();
+        for (int i = 0; i < 4; i++){
+            Files.copy(Paths.get(IN_DIR+"sign_me.pdf"), Paths.get(dir.getPath(), "doc_"+i+".pdf"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        SignerContext context = context(ks, alias)
+                .withTSAClient(new TSAClient(tsa.getUrl(), 2));
+        PipelineSigner ps = new PipelineSigner(context, "Time stamped");
+        ps.setThreads(1, 1, 1, 1);
+        for (BatchSigner.Result r : ps.signDirectory(dir)){
+            assertTrue(r.isSuccess());
+            SignatureVerifier.Report report = new SignatureVerifier(1).verify(r.getOutput());
+            assertTrue(report.isValid());
+            assertNotNull(report.getSignatures().get(0).getTimestamp());
+        }
+    }
+
+    /**
+     * Test of bounded documents waiting for a slow TSA in PipelineSigner.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testPipelineTimeStampBounded() throws Exception {
+        System.out.println("pipeline with slow tsa");
+        File dir = new File(outDir+"pipeline_slow/");
+        dir.mkdirs();
+        for (int i = 0; i < 6; i++){
+            Files.copy(Paths.get(IN_DIR+"sign_me.pdf"), Paths.get(dir.getPath(), "doc_"+i+".pdf"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        AtomicInteger waiting = new AtomicInteger();
+        AtomicInteger maxWaiting = new AtomicInteger();
+        TSAClient counting = new TSAClient(tsa.getUrl(), 4) {
+            @Override
+            public CompletableFuture<byte[]> addTimeStamp(byte[] cms) {
+                maxWaiting.accumulateAndGet(waiting.incrementAndGet(), Math::max);
+                return super.addTimeStamp(cms).whenComplete((r, ex) -> waiting.decrementAndGet());
+            }
+        };
+        tsa.setDelayMillis(100);
+        try {
+            SignerContext context = context(ks, alias).withTSAClient(counting);
+            // size measurement time stamps a dummy signature outside the pipeline
+            context.getSignatureSize();
+            waiting.set(0);
+            maxWaiting.set(0);
+            PipelineSigner ps = new PipelineSigner(context, "Time stamped");
+            ps.setThreads(2, 2, 2, 1);
+            ps.setQueueCapacity(1);
+            for (BatchSigner.Result r : ps.signDirectory(dir)){
+                assertTrue(r.isSuccess());
+            }
+            assertEquals(1, maxWaiting.get());
+        } finally {
+            tsa.setDelayMillis(0);
+        }
+    }
+
+    /**
+     * Test of bounded concurrency, of class TSAClient.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testMaxConcurrent() throws Exception {
+        System.out.println("tsa max concurrent");
+        TSAClient client = new TSAClient(tsa.getUrl(), 2);
+        tsa.setDelayMillis(50);
+        try {
+            List<CompletableFuture<TimeStampToken>> tokens = new ArrayList<>();
+            for (int i = 0; i < 10; i++){
+                tokens.add(client.getTimeStampToken(new byte[]{(byte) i}));
+            }
+            for (CompletableFuture<TimeStampToken> token : tokens){
+                assertNotNull(TSAClient.await(token));
+            }
+            assertTrue(tsa.getMaxInFlight() <= 2);
+        } finally {
+            tsa.setDelayMillis(0);
+        }
+    }
+
+    /**
+     * Test of request failing before it is sent, the permit is given back.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testRequestFailure() throws Exception {
+        System.out.println("tsa request failure");
+        TSAClient client = new TSAClient(tsa.getUrl(), 1);
+        // the request builder rejects a zero timeout
+        client.setTimeout(Duration.ZERO);
+        for (int i = 0; i < 3; i++){
+            try {
+                TSAClient.await(client.getTimeStampToken(new byte[]{(byte) i}).orTimeout(10, TimeUnit.SECONDS));
+                fail("Invalid request not reported");
+            } catch (IOException ex) {
+                assertTrue(ex.getCause() instanceof IllegalArgumentException);
+            }
+        }
+    }
+
+    /**
+     * Test of retry after server error, of class TSAClient.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testRetry() throws Exception {
+        System.out.println("tsa retry");
+        TSAClient client = new TSAClient(tsa.getUrl(), 1);
+        client.setMaxRetries(2);
+        int before = tsa.getRequests();
+        tsa.setFailures(2);
+        assertNotNull(TSAClient.await(client.getTimeStampToken("retry".getBytes(FileEncryption.Charset))));
+        assertEquals(before + 3, tsa.getRequests());
+        
+        client.setMaxRetries(0);
+        tsa.setFailures(1);
+        try {
+            TSAClient.await(client.getTimeStampToken("fail".getBytes(FileEncryption.Charset)));
+            fail("TSA failure not reported");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("503"));
+        }
+    }
+}
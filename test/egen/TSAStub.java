@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.pdfbox.io.IOUtils;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TSPAlgorithms;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampResponseGenerator;
+import org.bouncycastle.tsp.TimeStampTokenGenerator;
+
+/**
+ * In-process RFC 3161 TSA on the loopback interface for tests.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class TSAStub {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final TimeStampResponseGenerator generator;
+    private final AtomicInteger serial = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile int failures = 0;
+    private volatile long delayMillis = 0;
+
+    /**
+     * Start TSA stub with a new self signed timestamping certificate
+     * @throws Exception 
+     */
+    public TSAStub() throws Exception {
+        KeyPairGenerator keygen = KeyPairGenerator.getInstance("RSA");
+        keygen.initialize(2048);
+        KeyPair pair = keygen.generateKeyPair();
+        X500Name dn = new X500Name("CN=Test TSA");
+        Date now = new Date();
+        JcaX509v3CertificateBuilder cb = new JcaX509v3CertificateBuilder(dn, BigInteger.ONE, 
+                new Date(now.getTime() - 86400000L), new Date(now.getTime() + 86400000L), dn, pair.getPublic());
+        cb.addExtension(Extension.extendedKeyUsage, true, new ExtendedKeyUsage(KeyPurposeId.id_kp_timeStamping));
+        X509Certificate cert = new JcaX509CertificateConverter().getCertificate(
+                cb.build(new JcaContentSignerBuilder("SHA256WithRSA").build(pair.getPrivate())));
+        
+        TimeStampTokenGenerator tokenGenerator = new TimeStampTokenGenerator(
+                new JcaSimpleSignerInfoGeneratorBuilder().build("SHA256WithRSA", pair.getPrivate(), cert),
+                new JcaDigestCalculatorProviderBuilder().build().get(
+                        new AlgorithmIdentifier(new ASN1ObjectIdentifier("1.3.14.3.2.26"))),
+                new ASN1ObjectIdentifier("1.2.3.4.1"));
+        tokenGenerator.addCertificates(new JcaCertStore(Collections.singletonList(cert)));
+        generator = new TimeStampResponseGenerator(tokenGenerator, TSPAlgorithms.ALLOWED);
+        
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newFixedThreadPool(8);
+        server.setExecutor(executor);
+        server.createContext("/tsa", (exchange) -> {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                byte[] body;
+                try (InputStream in = exchange.getRequestBody()) {
+                    body = IOUtils.toByteArray(in);
+                }
+                requests.incrementAndGet();
+                if (delayMillis > 0){
+                    Thread.sleep(delayMillis);
+                }
+                if (failures > 0){
+                    failures--;
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] response;
+                synchronized (generator) {
+                    response = generator.generate(new TimeStampRequest(body), 
+                            BigInteger.valueOf(serial.incrementAndGet()), new Date()).getEncoded();
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/timestamp-reply");
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(response);
+                }
+            } catch (Exception ex) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Get TSA URL
+     * @return 
+     */
+    public URI getUrl() {
+        return URI.create("http://127.0.0.1:"+server.getAddress().getPort()+"/tsa");
+    }
+
+    /**
+     * Answer next requests with HTTP 503
+     * @param failures number of failing requests
+     */
+    public void setFailures(int failures) {
+        this.failures = failures;
+    }
+
+    /**
+     * Delay every response
+     * @param delayMillis 
+     */
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Get number of received requests
+     * @return 
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Get highest number of concurrent requests
+     * @return 
+     */
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    /**
+     * Stop TSA stub
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * Shared fixture of the tests: directories, keystore password and signers
+ * with a new self signed key.
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+final class TestSigners {
+    /**
+     * Define constant for test input files
+     */
+    static final String IN_DIR = "test/resources/";
+    
+    /**
+     * Define constant for test output files
+     */
+    static final String OUT_DIR = "build/test/results/";
+    
+    /**
+     * Define constant for password of created keystores and keys
+     */
+    static final String PASSWORD = "123456";
+    
+    private TestSigners() {
+    }
+
+    /**
+     * Create RSA keystore with a new self signed key
+     * @param store keystore file relative to {@link #OUT_DIR}
+     * @param alias
+     * @param cn common name of the certificate
+     * @return 
+     */
+    static KeyStore keystore(String store, String alias, String cn) {
+        return keystore(store, alias, cn, KeyAlgorithm.RSA);
+    }
+
+    /**
+     * Create keystore with a new self signed key
+     * @param store keystore file relative to {@link #OUT_DIR}
+     * @param alias
+     * @param cn common name of the certificate
+     * @param keyAlgorithm
+     * @return 
+     */
+    static KeyStore keystore(String store, String alias, String cn, KeyAlgorithm keyAlgorithm) {
+        File file = new File(OUT_DIR+store);
+        file.getParentFile().mkdirs();
+        return FileEncryption.createKeystore(file.getPath(), alias, cn, PASSWORD, keyAlgorithm);
+    }
+
+    /**
+     * Create signer of alias in keystore
+     * @param ks keystore protected by {@link #PASSWORD}
+     * @param alias
+     * @return
+     * @throws GeneralSecurityException
+     * @throws IOException 
+     */
+    static SignerContext context(KeyStore ks, String alias) throws GeneralSecurityException, IOException {
+        return SignerContext.create(ks, alias, PASSWORD.toCharArray());
+    }
+
+    /**
+     * Create signer with a new self signed RSA key
+     * @param store keystore file relative to {@link #OUT_DIR}
+     * @param alias
+     * @param cn common name of the certificate
+     * @return
+     * @throws GeneralSecurityException
+     * @throws IOException 
+     */
+    static SignerContext context(String store, String alias, String cn) throws GeneralSecurityException, IOException {
+        return context(keystore(store, alias, cn), alias);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class ValidationInformationTest {
+    
+    public ValidationInformationTest() {
+    }
+
+    /**
+     * Test of addValidationInformation method, of class ValidationInformation.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testAddValidationInformation() throws Exception {
+        System.out.println("addValidationInformation");
+        RevocationStub ca = new RevocationStub();
+        try {
+            KeyPair pair = RevocationStub.keyPair();
+            Certificate[] chain = {ca.issue("LTV Signer", pair, true), ca.getCaCertificate()};
+            KeyStore ks = KeyStore.getInstance("PKCS12");
+            ks.load(null, null);
+            ks.setKeyEntry("ltv", pair.getPrivate(), PASSWORD.toCharArray(), chain);
+            
+            File signed = new File(OUT_DIR+"sign_me_ltv.pdf");
+            PDFSignature signing = new PDFSignature(context(ks, "ltv"));
+            signing.setReason("LTV");
+            signing.signFile(new File(IN_DIR+"sign_me.pdf"), signed);
+            long length = signed.length();
+            
+            ValidationInformation vi = new ValidationInformation(new RevocationCache(null));
+            vi.setMemoryUsageSetting(MemoryUsageSetting.setupTempFileOnly());
+            vi.addValidationInformation(signed);
+            vi.addValidationInformation(signed);
+            assertTrue(signed.length() > length);
+            
+            try (PDDocument doc = PDDocument.load(signed)) {
+                COSDictionary dss = (COSDictionary) doc.getDocumentCatalog().getCOSObject().getDictionaryObject(COSName.getPDFName("DSS"));
+                assertNotNull(dss);
+                // second update does not add the same data again
+                assertEquals(2, ((COSArray) dss.getDictionaryObject(COSName.getPDFName("Certs"))).size());
+                assertEquals(1, ((COSArray) dss.getDictionaryObject(COSName.getPDFName("OCSPs"))).size());
+                assertNull(dss.getDictionaryObject(COSName.getPDFName("CRLs")));
+            }
+            assertEquals(1, ca.getOcspRequests());
+            
+            SignatureVerifier.Report report = new SignatureVerifier(1).verify(signed);
+            assertTrue(report.isValid());
+            assertFalse(report.getSignatures().get(0).isCoversWholeDocument());
+            assertTrue(Files.size(Paths.get(signed.getPath())) > 0);
+        } finally {
+            ca.stop();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Eko Junaidi Salam eko.junaidi.salam@gmail.com.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package egen;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Calendar;
+import java.util.TimeZone;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationWidget;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
+import org.apache.pdfbox.pdmodel.interactive.form.PDSignatureField;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static egen.TestSigners.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Eko Junaidi Salam eko.junaidi.salam@gmail.com
+ */
+public class VisibleSignatureTest {
+    private static final String alias = "visible";
+    private static SignerContext context;
+    
+    public VisibleSignatureTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        new File(OUT_DIR).mkdirs();
+        context = context("visible.store", alias, "Visible Signer");
+    }
+
+    /**
+     * Test of visible signature shared by documents, of class VisibleSignature.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testVisibleSignature() throws Exception {
+        System.out.println("visible signature");
+        VisibleSignature visible = VisibleSignature.parse("1,50,50,240,60", new File(VisibleSignature.default_image));
+        PDFSignature signing = new PDFSignature(context);
+        signing.setVisibleSignature(visible);
+        
+        for (boolean external : new boolean[]{false, true}){
+            File out = new File(OUT_DIR+"sign_me_visible_"+external+".pdf");
+            signing.setExternalSigning(external);
+            signing.signFile(new File(IN_DIR+"sign_me.pdf"), out);
+            assertTrue(PDFSignatureTest.verify(out, context.getCertificate()));
+            
+            try (PDDocument doc = PDDocument.load(out)) {
+                PDSignatureField field = doc.getSignatureFields().get(doc.getSignatureFields().size() - 1);
+                PDAnnotationWidget widget = field.getWidgets().get(0);
+                PDRectangle rect = widget.getRectangle();
+                assertEquals(240, rect.getWidth(), 0.01);
+                assertEquals(60, rect.getHeight(), 0.01);
+                
+                PDPage page = doc.getPage(0);
+                assertTrue(page.getAnnotations().stream().anyMatch((a) -> a.getCOSObject() == widget.getCOSObject()));
+                
+                PDAppearanceStream ap = widget.getNormalAppearanceStream();
+                PDXObject image = ap.getResources().getXObject(COSName.getPDFName("Img"));
+                assertTrue(image instanceof PDImageXObject);
+                assertNotNull(((PDImageXObject) image).getImage());
+                
+                // stamp is drawn inside its rectangle
+                BufferedImage rendered = new PDFRenderer(doc).renderImage(0);
+                boolean drawn = false;
+                int h = rendered.getHeight();
+                for (int x = 50; x < 290 && !drawn; x++){
+                    for (int y = h - 110; y < h - 50 && !drawn; y++){
+                        drawn = (rendered.getRGB(x, y) & 0xffffff) != 0xffffff;
+                    }
+                }
+                assertTrue(drawn);
+            }
+        }
+        
+        Calendar date = Calendar.getInstance(TimeZone.getTimeZone("Asia/Jakarta"));
+        date.clear();
+        date.set(2020, 0, 2, 3, 4, 5);
+        assertEquals("2020-01-02 03:04:05 +07:00", VisibleSignature.formatDate(date));
+    }
+
+    /**
+     * Test of signer name outside the font encoding, of class VisibleSignature.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testVisibleSignatureUnicodeName() throws Exception {
+        System.out.println("visible signature unicode name");
+        assertEquals("Jos\u00e9 ?? ?", VisibleSignature.encodable("Jos\u00e9 \u0418\u0432 \u738b"));
+        
+        SignerContext unicode = context("visible_unicode.store", alias, "\u0418\u0432\u0430\u043d \u738b");
+        PDFSignature signing = new PDFSignature(unicode);
+        signing.setVisibleSignature(VisibleSignature.parse("1,50,50,240,60", null));
+        File out = new File(OUT_DIR+"sign_me_visible_unicode.pdf");
+        signing.signFile(new File(IN_DIR+"sign_me.pdf"), out);
+        assertTrue(PDFSignatureTest.verify(out, unicode.getCertificate()));
+    }
+}